@@ -0,0 +1,108 @@
+package com.doomscrollstopper;
+
+/*
+ * AppDetectionService
+ * --------------------
+ * AccessibilityService backing res/xml/app_detection_service_config.xml.
+ * Receives TYPE_WINDOW_STATE_CHANGED events and forwards the package that moved to
+ * the front straight into AppUsageMonitor's blocking decision.
+ *
+ * Notes:
+ *  - Event-driven: a blocked app is caught as soon as its activity window appears,
+ *    instead of waiting up to a full poll interval.
+ *  - The AppUsageMonitor poll loop stays as a fallback and slows down while this
+ *    service is connected (see isConnected()).
+ *  - Window changes that are not activities (dialogs, IME, system UI, our own overlay)
+ *    are ignored so they never look like an app switch.
+ */
+
+import android.accessibilityservice.AccessibilityService;
+import android.content.ComponentName;
+import android.content.pm.PackageManager;
+import android.util.Log;
+import android.view.accessibility.AccessibilityEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class AppDetectionService extends AccessibilityService {
+    private static final String TAG = "AppDetectionService";
+
+    private static volatile boolean connected = false;
+
+    // ComponentName string -> whether it is a real activity; avoids a PackageManager call per event
+    private final Map<String, Boolean> activityCache = new HashMap<>();
+    private String lastPackage = "";
+
+    public static boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    protected void onServiceConnected() {
+        super.onServiceConnected();
+        connected = true;
+        Log.d(TAG, "[CONNECT] Accessibility detection connected; poller becomes fallback");
+    }
+
+    @Override
+    public void onAccessibilityEvent(AccessibilityEvent event) {
+        if (event == null || event.getEventType() != AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED) {
+            return;
+        }
+        CharSequence pkg = event.getPackageName();
+        CharSequence cls = event.getClassName();
+        if (pkg == null || cls == null) {
+            return;
+        }
+
+        String packageName = pkg.toString();
+        if (packageName.equals(lastPackage)) {
+            return;
+        }
+        if (packageName.equals(getPackageName())) {
+            // Not reported, but remembered: blocked app -> us -> the same blocked app must
+            // still count as a switch back
+            lastPackage = packageName;
+            return;
+        }
+        if (!isActivity(packageName, cls.toString())) {
+            return;
+        }
+        lastPackage = packageName;
+
+        AppUsageMonitor monitor = AppUsageMonitor.getActiveMonitor();
+        if (monitor != null) {
+            monitor.onForegroundAppChanged(packageName);
+        }
+    }
+
+    private boolean isActivity(String packageName, String className) {
+        String key = packageName + "/" + className;
+        Boolean cached = activityCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        boolean result;
+        try {
+            getPackageManager().getActivityInfo(new ComponentName(packageName, className), 0);
+            result = true;
+        } catch (PackageManager.NameNotFoundException e) {
+            result = false;
+        }
+        activityCache.put(key, result);
+        return result;
+    }
+
+    @Override
+    public void onInterrupt() {
+        // No feedback to interrupt; detection is passive
+    }
+
+    @Override
+    public void onDestroy() {
+        connected = false;
+        Log.d(TAG, "[DESTROY] Accessibility detection disconnected; poller resumes full rate");
+        super.onDestroy();
+    }
+}
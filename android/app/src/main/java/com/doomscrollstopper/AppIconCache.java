@@ -0,0 +1,264 @@
+package com.doomscrollstopper;
+
+/*
+ * AppIconCache
+ * -------------
+ * App icons for the app picker, loaded on demand and rendered at the size the list draws them.
+ * Responsibilities:
+ *  - Render an icon once at the requested pixel size and keep it as compressed PNG bytes
+ *  - Memory tier: LRU bounded by bytes (MAX_MEMORY_BYTES, or less on small heaps)
+ *  - Disk tier: PNG thumbnails in cacheDir/app_icons named <package>_<versionCode>_<size>.png,
+ *    trimmed oldest-first past MAX_DISK_BYTES
+ *  - Drop a package's icons when it is updated or removed (PackageChangeHub)
+ *
+ * Notes:
+ *  - Only the small bitmap is ever allocated; it is recycled right after compression, so
+ *    scrolling through hundreds of apps keeps at most the LRU's bytes on the heap.
+ *  - The version code in the file name means a stale thumbnail is never served even if an
+ *    update broadcast was missed while the process was dead.
+ *  - Blocking (PackageManager + disk); call from a worker thread, e.g. UsageQueryExecutor.
+ *  - invalidate() only clears memory on the caller's thread (the main thread, for package
+ *    broadcasts); the disk files are deleted on the cache's own thread. Until then the old
+ *    files are harmless: their version code no longer matches, or the package is gone.
+ */
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Base64;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.core.content.pm.PackageInfoCompat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class AppIconCache {
+    private static final String TAG = "AppIconCache";
+    private static final int MAX_MEMORY_BYTES = 4 * 1024 * 1024;
+    private static final long MAX_DISK_BYTES = 16L * 1024 * 1024;
+    private static final int MIN_SIZE_PX = 16;
+    private static final int MAX_SIZE_PX = 512;
+    private static final String DATA_URI_PREFIX = "data:image/png;base64,";
+
+    private final PackageManager packageManager;
+    private final File diskDir;
+    // "<package>:<size>" -> PNG bytes
+    private final LruCache<String, byte[]> memory;
+    private final Object diskLock = new Object();
+    // Disk deletions requested from the main thread
+    private final Handler diskHandler;
+
+    private long diskLoads = 0L;
+    private long renders = 0L;
+
+    public AppIconCache(Context context, PackageChangeHub packageChanges) {
+        this.packageManager = context.getPackageManager();
+        this.diskDir = new File(context.getCacheDir(), "app_icons");
+        int budget = (int) Math.min(MAX_MEMORY_BYTES, Runtime.getRuntime().maxMemory() / 32);
+        this.memory = new LruCache<String, byte[]>(budget) {
+            @Override
+            protected int sizeOf(String key, byte[] value) {
+                return value.length;
+            }
+        };
+        HandlerThread diskThread = new HandlerThread("AppIconCache", Process.THREAD_PRIORITY_BACKGROUND);
+        diskThread.start();
+        this.diskHandler = new Handler(diskThread.getLooper());
+        packageChanges.addListener(new PackageChangeHub.Listener() {
+            @Override
+            public void onPackageChanged(String action, String packageName, boolean replacing) {
+                invalidate(packageName);
+            }
+
+            @Override
+            public void onLocaleChanged() {
+                // Icons are not localized
+            }
+        });
+    }
+
+    // PNG of packageName's icon at sizePx x sizePx, or null if the package is not installed
+    public byte[] getIcon(String packageName, int sizePx) {
+        int size = Math.max(MIN_SIZE_PX, Math.min(MAX_SIZE_PX, sizePx));
+        String memoryKey = packageName + ":" + size;
+        byte[] png = memory.get(memoryKey);
+        if (png != null) {
+            return png;
+        }
+
+        PackageInfo packageInfo;
+        try {
+            packageInfo = packageManager.getPackageInfo(packageName, 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+        File file = new File(diskDir, packageName + "_" + PackageInfoCompat.getLongVersionCode(packageInfo)
+                + "_" + size + ".png");
+        png = readFile(file);
+        if (png == null) {
+            png = render(packageInfo, size);
+            if (png == null) {
+                return null;
+            }
+            writeFile(file, png);
+        }
+        memory.put(memoryKey, png);
+        return png;
+    }
+
+    // Same as getIcon, as a data URI an <Image source={{uri}}> can show directly
+    public String getIconDataUri(String packageName, int sizePx) {
+        byte[] png = getIcon(packageName, sizePx);
+        return png != null ? DATA_URI_PREFIX + Base64.encodeToString(png, Base64.NO_WRAP) : null;
+    }
+
+    private byte[] render(PackageInfo packageInfo, int size) {
+        Bitmap bitmap = null;
+        try {
+            Drawable drawable = packageManager.getApplicationIcon(packageInfo.applicationInfo);
+            bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            drawable.setBounds(0, 0, size, size);
+            drawable.draw(canvas);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            synchronized (this) {
+                renders++;
+            }
+            return out.toByteArray();
+        } catch (Exception e) {
+            Log.e(TAG, "Error rendering icon for " + packageInfo.packageName, e);
+            return null;
+        } finally {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+        }
+    }
+
+    private byte[] readFile(File file) {
+        synchronized (diskLock) {
+            if (!file.isFile()) {
+                return null;
+            }
+            try (InputStream in = new FileInputStream(file)) {
+                byte[] data = new byte[(int) file.length()];
+                int read = 0;
+                while (read < data.length) {
+                    int n = in.read(data, read, data.length - read);
+                    if (n < 0) {
+                        return null;
+                    }
+                    read += n;
+                }
+                // Touch so the disk trim treats it as recently used
+                file.setLastModified(System.currentTimeMillis());
+                synchronized (this) {
+                    diskLoads++;
+                }
+                return data;
+            } catch (IOException e) {
+                Log.w(TAG, "Dropping unreadable icon " + file.getName(), e);
+                file.delete();
+                return null;
+            }
+        }
+    }
+
+    private void writeFile(File file, byte[] png) {
+        synchronized (diskLock) {
+            if (!diskDir.isDirectory() && !diskDir.mkdirs()) {
+                return;
+            }
+            File tmp = new File(diskDir, file.getName() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(png);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not cache icon " + file.getName(), e);
+                tmp.delete();
+                return;
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return;
+            }
+            trimDisk();
+        }
+    }
+
+    // diskLock held: delete least recently used thumbnails until under MAX_DISK_BYTES
+    private void trimDisk() {
+        File[] files = diskDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0L;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= MAX_DISK_BYTES) {
+                break;
+            }
+            total -= file.length();
+            file.delete();
+        }
+    }
+
+    // Package updated or removed: forget every size of its icon, in memory now and on disk soon
+    public void invalidate(String packageName) {
+        String memoryPrefix = packageName + ":";
+        for (String key : memory.snapshot().keySet()) {
+            if (key.startsWith(memoryPrefix)) {
+                memory.remove(key);
+            }
+        }
+        diskHandler.post(() -> deleteFiles(packageName));
+        Log.d(TAG, "[INVALIDATE] " + packageName);
+    }
+
+    // Cache thread only
+    private void deleteFiles(String packageName) {
+        synchronized (diskLock) {
+            String filePrefix = packageName + "_";
+            // The suffix check keeps "com.foo" from matching "com.foo_bar"'s files
+            File[] files = diskDir.listFiles((dir, name) -> name.startsWith(filePrefix)
+                    && name.substring(filePrefix.length()).matches("-?\\d+_\\d+\\.png(\\.tmp)?"));
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("memoryBytes", memory.size());
+        stats.put("memoryHits", memory.hitCount());
+        synchronized (this) {
+            stats.put("diskLoads", diskLoads);
+            stats.put("renders", renders);
+        }
+        return stats;
+    }
+}
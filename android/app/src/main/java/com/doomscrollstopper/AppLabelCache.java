@@ -0,0 +1,99 @@
+package com.doomscrollstopper;
+
+/*
+ * AppLabelCache
+ * --------------
+ * Bounded LRU cache of package name -> user-visible app label.
+ * Responsibilities:
+ *  - Serve labels for the detection tick and the stats screens without a
+ *    PackageManager Binder call + resource load per lookup
+ *  - Drop entries when a package is added, replaced or removed, and drop everything
+ *    when the device locale changes (labels are localized); both via PackageChangeHub
+ *  - Report hit/miss counts so the cache's value can be checked in the field
+ *
+ * Notes:
+ *  - android.util.LruCache is thread-safe; loads happen outside its lock, so two
+ *    threads may occasionally load the same label once each. That is harmless.
+ *  - Unknown packages cache their package name, matching the previous fallback.
+ */
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class AppLabelCache {
+    private static final String TAG = "AppLabelCache";
+    private static final int MAX_ENTRIES = 256;
+
+    private final PackageManager packageManager;
+    private final LruCache<String, String> labels;
+
+    public AppLabelCache(Context context, PackageChangeHub packageChanges) {
+        this.packageManager = context.getPackageManager();
+        this.labels = new LruCache<>(MAX_ENTRIES);
+        registerInvalidation(packageChanges);
+    }
+
+    public String getLabel(String packageName) {
+        String label = labels.get(packageName);
+        if (label == null) {
+            label = loadLabel(packageName);
+            labels.put(packageName, label);
+        }
+        return label;
+    }
+
+    // For callers that already hold the ApplicationInfo (e.g. installed-apps listing);
+    // a miss only costs the resource load, not the getApplicationInfo round trip
+    public String getLabel(ApplicationInfo appInfo) {
+        String label = labels.get(appInfo.packageName);
+        if (label == null) {
+            label = packageManager.getApplicationLabel(appInfo).toString();
+            labels.put(appInfo.packageName, label);
+        }
+        return label;
+    }
+
+    private String loadLabel(String packageName) {
+        try {
+            ApplicationInfo appInfo = packageManager.getApplicationInfo(packageName, 0);
+            return packageManager.getApplicationLabel(appInfo).toString();
+        } catch (PackageManager.NameNotFoundException e) {
+            return packageName;
+        }
+    }
+
+    // Registered first on the hub so dependent caches read fresh labels
+    private void registerInvalidation(PackageChangeHub packageChanges) {
+        packageChanges.addListener(new PackageChangeHub.Listener() {
+            @Override
+            public void onPackageChanged(String action, String packageName, boolean replacing) {
+                labels.remove(packageName);
+                Log.d(TAG, "[INVALIDATE] " + action + " " + packageName);
+            }
+
+            @Override
+            public void onLocaleChanged() {
+                labels.evictAll();
+                Log.d(TAG, "[INVALIDATE] locale changed, cleared all labels");
+            }
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        int hits = labels.hitCount();
+        int misses = labels.missCount();
+        int total = hits + misses;
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("size", labels.size());
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", total == 0 ? 0.0 : (double) hits / total);
+        return stats;
+    }
+}
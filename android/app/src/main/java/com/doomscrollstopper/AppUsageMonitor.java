@@ -1,34 +1,38 @@
 package com.doomscrollstopper;
 
+import android.app.AppOpsManager;
 import android.app.usage.UsageStats;
-import android.app.usage.UsageEvents;
 import android.app.usage.UsageStatsManager;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
-import android.graphics.PixelFormat;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
-import android.view.Gravity;
-import android.view.LayoutInflater;
-import android.view.View;
-import android.view.WindowManager;
-import android.widget.Button;
-import android.widget.ProgressBar;
-import android.widget.TextView;
-import android.content.SharedPreferences;
+import androidx.core.content.ContextCompat;
 
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -37,54 +41,121 @@ import java.util.HashMap;
  * ----------------
  * Core detection loop for foreground app usage and overlay intervention.
  * Responsibilities:
- *  - Poll UsageStats for current foreground app at 1s interval (battery-aware)
+ *  - Poll UsageStats for current foreground app on an adaptive schedule (battery-aware)
+ *  - Track the foreground app incrementally via ForegroundEventCursor (new events only)
+ *  - Accept window-change events from AppDetectionService for near-instant detection
  *  - Show delay overlay for apps in the blocked list, unless explicitly allowed this session
- *  - Maintain a lightweight in-memory session allowlist (`allowedThisSession`)
- *  - Persist blocked apps in SharedPreferences (doomscroll_prefs)
+ *  - Maintain a lightweight in-memory session allowlist (the SessionTable `allowed` column)
+ *  - Intern packages into PackageRegistry IDs; blocked/allowed/cooldown membership is a bit test
+ *  - Persist blocked apps and overlay settings through SettingsStore
+ *  - Single process-wide instance (getInstance) owning blocklist, settings and session
+ *    state; VPNModule and MyVpnService both talk to it directly, no Intents involved
  *
  * Notes on Performance & Battery:
- *  - Polling is kept at 1000ms to balance responsiveness and battery usage.
- *  - Handler bound to main Looper schedules the runnable only while `isMonitoring` is true.
- *  - Overlay operations run on UI thread; avoid heavy work inside callbacks.
+ *  - MonitorScheduler picks each tick's delay: fast polls after an app switch, exponential
+ *    backoff while the same app stays in front, exact wakeups for popup deadlines, and no
+ *    ticks at all while the screen is off or the blocklist is empty.
+ *  - While AppDetectionService is connected switches are pushed, so the backoff cap is much higher.
+ *  - Per-tick diagnostics are recorded into TraceBuffer (no string building, no allocation).
+ *  - Stats APIs read UsageAggregationCache: closed daily buckets are cached for good, the
+ *    open one for a short TTL, so a dashboard load costs at most one usage query.
+ *  - "Today" means since local midnight: DailyScreenTimeCounter rolls over at midnight and
+ *    is kept current from the same events, so the home screen reads it from memory.
+ *  - Foreground intervals are appended to UsageTimeSeriesStore as a side effect of the
+ *    tick's incremental event read, so history costs no extra queries.
+ *  - The overlay (DelayOverlay) is inflated once when monitoring starts and reused.
+ *  - Detection (UsageEvents IPC, label lookups, popup decisions) runs on a dedicated
+ *    HandlerThread; only overlay show/remove commands cross to the UI thread via runOnUiThread().
+ *  - Per-app session state lives in one primitive-array SessionTable confined to the detection
+ *    thread, so a tick's popup decision allocates nothing; settings and overlay flags are volatile.
+ *  - SessionJournal mirrors that table into a memory-mapped file as it changes and is replayed
+ *    before the first tick, so popup timers survive the OS killing the service.
+ *  - getInstance() does no file I/O: the settings/history stores and the session journal are
+ *    opened by the detection thread's first message (openStores); other threads that need
+ *    them wait for it.
+ *  - The blocklist is an immutable BlocklistSnapshot behind one volatile reference, so
+ *    updates from the bridge are lock-free and visible to the next decision.
  */
 
 public class AppUsageMonitor {
     private static final String TAG = "AppUsageMonitor";
     private Context context;
     private UsageStatsManager usageStatsManager;
-    private Handler handler;
-    private boolean isMonitoring = false;
-    private Set<String> blockedApps = new HashSet<>();
-    private ConcurrentHashMap<String, Long> appDelayTimes = new ConcurrentHashMap<>();
-    private WindowManager windowManager;
-    private View overlayView;
+    // Remembers the last processed event so each tick reads only new UsageEvents
+    private ForegroundEventCursor eventCursor;
+    // Persisted user settings; changes arrive as versioned snapshots on its ConfigBus
+    // Opened on the detection thread by openStores(); use store() off that thread
+    private volatile SettingsStore settingsStore;
+    // Revision of the settings snapshot in effect, and its blocklist version (detection thread only)
+    private long appliedConfigVersion = -1L;
+    private long appliedBlocklistVersion = -1L;
+    // Single package/locale broadcast receiver shared by the caches below
+    private final PackageChangeHub packageChanges;
+    // Package -> label, invalidated by package and locale broadcasts
+    private final AppLabelCache labelCache;
+    // Installed user apps with labels, kept current from packageChanges
+    private final InstalledAppsIndex installedApps;
+    // Picker icons, rendered on demand at display size
+    private final AppIconCache iconCache;
+    // Daily usage buckets shared by every stats API (and ScreenTimeTracker)
+    private final UsageAggregationCache usageCache;
+    // Our own minute-level usage history, fed by eventCursor's foreground intervals
+    private volatile UsageTimeSeriesStore usageHistory;
+    // Hour/day/week summaries of usageHistory, built as each period closes
+    private volatile UsageRollupStore usageRollups;
+    // Calendar-day screen time kept current from eventCursor's events
+    private final DailyScreenTimeCounter dailyCounter;
+    // Detection thread: UsageEvents IPC, label lookups and all popup decisions run here
+    private final HandlerThread monitorThread;
+    private final Handler handler;
+    // UI thread: only overlay add/remove and the countdown run here (see runOnUiThread)
+    private final Handler mainHandler;
+    private volatile boolean isMonitoring = false;
+    // Package name -> compact ID; all per-app session state is indexed by it
+    private final PackageRegistry packageRegistry = new PackageRegistry();
+    // Replaced wholesale from the bridge/service thread, read on the detection thread
+    private volatile BlocklistSnapshot blocklist = BlocklistSnapshot.EMPTY;
+    // Pre-inflated, reused intervention window (UI thread only)
+    private final DelayOverlay delayOverlay;
     private String lastDetectedApp = "";
-    private boolean isOverlayActive = false;
+    private volatile boolean isOverlayActive = false;
     private String lastAppPackage = "";
     private String currentForegroundApp = "";
-    private Set<String> allowedThisSession = new HashSet<>();
-    // Cooldown tracking to prevent immediate re-triggers after dismissal or allow
-    private final Map<String, Long> popupCooldown = new ConcurrentHashMap<>();
+    private int currentForegroundId = PackageRegistry.NO_ID;
+    // Open time, first popup time, Continue cooldown and allowed flag per PackageRegistry ID.
+    // Confined to the detection thread; UI callbacks post changes back to it
+    private final SessionTable sessions = new SessionTable();
+    // Memory-mapped mirror of sessions, replayed when the process comes back after a kill
+    private volatile SessionJournal sessionJournal;
+    // Counted down once openStores() has run; the stores above are set before it
+    private final CountDownLatch storesReady = new CountDownLatch(1);
+    private volatile long sessionRestoreMicros = 0L;
     private static final long POPUP_COOLDOWN_MS = 1000; // 1s cooldown to avoid rapid re-triggers after Continue
     private static final long OVERLAY_DEBOUNCE_MS = 500; // 0.5s guard to prevent double overlay creation
-    private long overlayPendingUntil = 0L;
+    // Raw UsageEvents are kept by the OS for about a week; older ranges use daily buckets
+    private static final long RAW_EVENTS_RETENTION_MS = 7L * 24 * 60 * 60 * 1000;
+    private volatile long overlayPendingUntil = 0L;
     private final Object overlayLock = new Object();
 
-    // Custom message for the delay overlay (set from React Native)
-    private String customMessage = "Take a moment to consider if you really need this app right now";
-    private int customDelayTimeSeconds = 15; // Default delay time for countdown
+    // Accepted ranges for the overlay countdown and popup delay
+    public static final int MIN_DELAY_SECONDS = 5;
+    public static final int MAX_DELAY_SECONDS = 120;
+    public static final int MAX_POPUP_DELAY_MINUTES = 60;
+
+    // Custom message for the delay overlay (set from React Native; seeded from SettingsStore)
+    private volatile String customMessage;
+    private volatile int customDelayTimeSeconds; // Countdown length
     // Popup delay: how long to wait after FIRST popup before showing popup again
     // (in minutes)
-    private int popupDelayMinutes = 1; // Default: 1 minute
-    // Track when each blocked app was opened (packageName -> timestamp in
-    // milliseconds)
-    private final ConcurrentHashMap<String, Long> appOpenTimestamps = new ConcurrentHashMap<>();
-    // Track when the FIRST popup was shown for each app (packageName -> timestamp
-    // in milliseconds)
-    // This is used to show the second popup after X minutes
-    private final ConcurrentHashMap<String, Long> firstPopupShownTimestamps = new ConcurrentHashMap<>();
+    private volatile int popupDelayMinutes;
     // Store the monitor runnable so we can remove it to prevent concurrent loops
-    private Runnable monitorRunnable;
+    private volatile Runnable monitorRunnable;
+    // Decides the delay before each tick (fast after a switch, backoff, deadline, parked)
+    private final MonitorScheduler scheduler = new MonitorScheduler();
+    // Earliest time a pending popup decision for the foreground app comes due (0 = none)
+    private long nextDecisionDeadline = 0L;
+    private volatile boolean screenOn = true;
+    private BroadcastReceiver screenReceiver;
 
     public interface AppDetectionListener {
         void onAppDetected(String packageName, String appName);
@@ -92,13 +163,151 @@ public class AppUsageMonitor {
         void onBlockedAppOpened(String packageName, String appName);
     }
 
-    private AppDetectionListener listener;
+    // Notified on the detection thread: app switches and interventions (overlay shown)
+    private final List<AppDetectionListener> listeners = new CopyOnWriteArrayList<>();
+    // Overlays shown since the process started; written on the detection thread only
+    private volatile long interventionCount = 0L;
+
+    // Process-wide engine shared by VPNModule (bridge) and MyVpnService (foreground service)
+    private static AppUsageMonitor instance;
+
+    public static synchronized AppUsageMonitor getInstance(Context context) {
+        if (instance == null) {
+            instance = new AppUsageMonitor(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // Engine if the detection loop is running, else null; window-change events are routed here
+    static AppUsageMonitor getActiveMonitor() {
+        AppUsageMonitor engine;
+        synchronized (AppUsageMonitor.class) {
+            engine = instance;
+        }
+        return engine != null && engine.isMonitoring ? engine : null;
+    }
 
-    public AppUsageMonitor(Context context) {
+    private AppUsageMonitor(Context context) {
         this.context = context;
         this.usageStatsManager = (UsageStatsManager) context.getSystemService(Context.USAGE_STATS_SERVICE);
-        this.windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
-        this.handler = new Handler(Looper.getMainLooper());
+        this.eventCursor = new ForegroundEventCursor(usageStatsManager);
+        this.packageChanges = new PackageChangeHub(context);
+        // Registered first so the index relabels from an already-invalidated cache
+        this.labelCache = new AppLabelCache(context, packageChanges);
+        this.installedApps = new InstalledAppsIndex(context, labelCache, packageChanges);
+        this.iconCache = new AppIconCache(context, packageChanges);
+        this.usageCache = new UsageAggregationCache(usageStatsManager);
+        this.dailyCounter = new DailyScreenTimeCounter(usageStatsManager);
+        this.eventCursor.setEventListener(dailyCounter);
+        registerTimeChangeReceiver();
+        this.delayOverlay = new DelayOverlay(context, new DelayOverlay.Callbacks() {
+            @Override
+            public void onContinue(String packageName) {
+                long clickedAt = System.currentTimeMillis();
+                handler.post(() -> {
+                    int id = packageRegistry.intern(packageName);
+                    sessions.setAllowed(id, true);
+                    sessions.startCooldown(id, clickedAt);
+                });
+                removeOverlay();
+            }
+
+            @Override
+            public void onBack(String packageName) {
+                handler.post(() -> sessions.setAllowed(packageRegistry.intern(packageName), false));
+                Log.i(TAG, "Back pressed: no cooldown; will show immediately on next open for " + packageName);
+                removeOverlay();
+                Intent homeIntent = new Intent(Intent.ACTION_MAIN);
+                homeIntent.addCategory(Intent.CATEGORY_HOME);
+                homeIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                context.startActivity(homeIntent);
+            }
+        });
+        this.monitorThread = new HandlerThread("AppUsageMonitor", Process.THREAD_PRIORITY_BACKGROUND);
+        this.monitorThread.start();
+        this.handler = new Handler(monitorThread.getLooper());
+        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.scheduler.setListener((from, to, wakeups) ->
+                TraceBuffer.record(TraceBuffer.SCHEDULE, null, from.ordinal(), to.ordinal()));
+        // File I/O stays off whichever thread called getInstance(); this is the thread's first
+        // message, so it runs before any tick
+        handler.post(this::openStores);
+    }
+
+    /**
+     * Detection thread, once: opens the settings and history stores, applies the stored
+     * settings and replays the session journal. Callers on other threads that need any
+     * of these wait in awaitStores() until it has finished. A store that fails to open is
+     * logged and left null; the engine carries on with its in-memory defaults without it.
+     */
+    private void openStores() {
+        try {
+            try {
+                usageHistory = new UsageTimeSeriesStore(context.getFilesDir());
+                usageRollups = new UsageRollupStore(context.getFilesDir(), usageHistory);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "[STORES] usage history unavailable, intervals will not be kept", e);
+            }
+            // Every completed foreground interval the detection loop sees is kept locally;
+            // rollUp is a no-op until an hour has closed
+            eventCursor.setIntervalListener((packageName, startMs, endMs) -> {
+                if (usageHistory != null) {
+                    usageHistory.recordInterval(packageName, startMs, endMs);
+                }
+                if (usageRollups != null) {
+                    usageRollups.rollUp(endMs);
+                }
+            });
+            try {
+                settingsStore = SettingsStore.getInstance(context);
+                // Settings first: restoring sessions needs the popup delay
+                applyPendingConfig();
+                settingsStore.getBus().addListener(settings -> handler.post(this::applyPendingConfig));
+            } catch (RuntimeException e) {
+                Log.e(TAG, "[STORES] settings unavailable, running on defaults", e);
+            }
+            try {
+                sessionJournal = new SessionJournal(context.getFilesDir());
+                restoreSessions();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "[STORES] session restore failed, sessions start fresh", e);
+            }
+        } finally {
+            storesReady.countDown();
+        }
+    }
+
+    // Blocks a caller off the detection thread until openStores() has run (normally already)
+    private void awaitStores() {
+        boolean interrupted = false;
+        while (storesReady.getCount() > 0) {
+            try {
+                storesReady.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs callback on the main thread once openStores() has finished, without blocking the
+     * caller; isMonitoringEnabled() and friends return immediately from inside it.
+     */
+    public void whenStoresOpen(Runnable callback) {
+        // openStores() is the detection thread's first message, so this runs after it
+        handler.post(() -> mainHandler.post(callback));
+    }
+
+    // Throws IllegalStateException if the settings store could not be opened
+    private SettingsStore store() {
+        awaitStores();
+        if (settingsStore == null) {
+            throw new IllegalStateException("Settings store unavailable");
+        }
+        return settingsStore;
     }
 
     public void startMonitoring() {
@@ -138,15 +347,15 @@ public class AppUsageMonitor {
             }
             Log.d(TAG, "Overlay permission OK");
 
-            loadBlockedAppsFromPrefs();
-            Log.d(TAG, "Loaded blocked apps count=" + (blockedApps != null ? blockedApps.size() : 0));
-            if (blockedApps != null && !blockedApps.isEmpty()) {
-                Log.d(TAG, "Blocked apps list: " + blockedApps.toString());
-            } else {
+            Log.d(TAG, "Blocked apps count=" + blocklist.size());
+            if (blocklist.isEmpty()) {
                 Log.w(TAG, "WARNING: No blocked apps loaded! Popups will NOT show!");
             }
 
             isMonitoring = true;
+            registerScreenReceiver();
+            // Build the overlay view tree now so the first intervention only rebinds text
+            runOnUiThread(delayOverlay::prepare);
             Log.d(TAG, "Starting monitor thread...");
 
             monitorApps();
@@ -158,10 +367,80 @@ public class AppUsageMonitor {
         }
     }
 
-    public void loadBlockedAppsFromPrefs() {
-        SharedPreferences prefs = context.getSharedPreferences("doomscroll_prefs", Context.MODE_PRIVATE);
-        Set<String> appSet = prefs.getStringSet("blocked_apps", new HashSet<>());
-        blockedApps = new HashSet<>(appSet); // make a copy
+    /**
+     * Brings the engine up to the latest settings snapshot on the bus. Detection thread (or
+     * the constructor, before the loop exists); a volatile read when nothing changed.
+     */
+    private void applyPendingConfig() {
+        SettingsStore.Settings settings = settingsStore.getBus().getLatest();
+        if (settings.revision == appliedConfigVersion) {
+            return;
+        }
+        if (settings.blocklistVersion != appliedBlocklistVersion) {
+            SettingsStore.BlocklistDelta delta = settings.blocklistDelta;
+            if (delta != null && delta.fromVersion == appliedBlocklistVersion) {
+                // One toggle: flip only the changed bits
+                publishBlocklist(blocklist.withChanges(settings.blockedApps, delta.added, delta.removed,
+                        packageRegistry));
+            } else {
+                publishBlocklist(BlocklistSnapshot.of(settings.blockedApps, packageRegistry));
+            }
+            appliedBlocklistVersion = settings.blocklistVersion;
+        }
+        customMessage = settings.delayMessage;
+        customDelayTimeSeconds = settings.delaySeconds;
+        popupDelayMinutes = settings.popupDelayMinutes;
+        if (usageRollups != null) {
+            usageRollups.setRetentionPolicy(settings.retention);
+        }
+        appliedConfigVersion = settings.revision;
+        settingsStore.getBus().markApplied(settings.revision);
+    }
+
+    /**
+     * Rebuilds the session table and the foreground app from SessionJournal, so a restart
+     * after the service was killed continues open/first-popup timers instead of resetting
+     * them. If another app is in front by the first tick, the usual switch handling ends
+     * the restored session. Rows whose latest timestamp is older than the popup delay (or
+     * in the future, after a clock change) are dropped: their session is over, and keeping
+     * them would fire the second popup at once or suppress the first.
+     */
+    private void restoreSessions() {
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        long now = System.currentTimeMillis();
+        long maxAgeMs = Math.max(popupDelayMinutes * 60 * 1000L, POPUP_COOLDOWN_MS);
+        BitSet restored = new BitSet();
+        String foreground = sessionJournal.replay(packageRegistry,
+                (packageName, openTs, firstPopupTs, cooldownTs, allowed) -> {
+                    long latest = Math.max(openTs, Math.max(firstPopupTs, cooldownTs));
+                    if (latest > now || now - latest >= maxAgeMs) {
+                        return;
+                    }
+                    int id = packageRegistry.intern(packageName);
+                    sessions.restore(id, openTs, firstPopupTs, cooldownTs, allowed);
+                    restored.set(id);
+                });
+        sessions.attachJournal(sessionJournal, packageRegistry);
+        if (foreground != null && restored.get(packageRegistry.intern(foreground))) {
+            currentForegroundApp = foreground;
+            currentForegroundId = packageRegistry.intern(foreground);
+        } else {
+            foreground = null;
+        }
+        sessionRestoreMicros = (SystemClock.elapsedRealtimeNanos() - startNs) / 1000;
+        Log.d(TAG, "[SESSIONS] restored in " + sessionRestoreMicros + "us, foreground=" + foreground);
+    }
+
+    public Map<String, Object> getSessionJournalStats() {
+        awaitStores();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("restoreMicros", sessionRestoreMicros);
+        stats.put("writes", sessionJournal != null ? sessionJournal.getWrites() : 0L);
+        return stats;
+    }
+
+    public ConfigBus getConfigBus() {
+        return store().getBus();
     }
 
     // main monitoring loop that checks the foreground app every second and shows
@@ -173,179 +452,309 @@ public class AppUsageMonitor {
         monitorRunnable = new Runnable() {
             @Override
             public void run() {
+                scheduler.onWakeup();
                 try {
+                    applyPendingConfig();
                     String foregroundApp = getCurrentForegroundApp();
+                    if (TraceBuffer.isEnabled()) {
+                        TraceBuffer.record(TraceBuffer.TICK, null, eventCursor.getLastEventsScanned(),
+                                scheduler.getState().ordinal());
+                    }
                     if (foregroundApp == null) {
-                        Log.d(TAG, "Foreground app is null; skipping this tick");
-                        // Continue loop even if foreground app is null
-                        if (isMonitoring) {
-                            handler.postDelayed(this, 1000);
-                        }
-                        return;
+                        TraceBuffer.record(TraceBuffer.FOREGROUND_NONE, null, 0L, 0L);
+                    } else {
+                        evaluateForegroundApp(foregroundApp);
                     }
+                } catch (Exception e) {
+                    Log.e(TAG, "Error monitoring apps", e);
+                }
+
+                // Continue loop even if foreground app is null or the tick failed
+                scheduleNextTick();
+            }
+        };
+
+        handler.post(monitorRunnable);
+    }
+
+    // Reposts the loop according to the scheduler; parks it (no post) while the
+    // screen is off or nothing is blocked.
+    private void scheduleNextTick() {
+        if (!isMonitoring || monitorRunnable == null) {
+            return;
+        }
+        handler.removeCallbacks(monitorRunnable);
+        long delay = scheduler.nextDelay(screenOn, !blocklist.isEmpty(), AppDetectionService.isConnected(),
+                blocklist.contains(currentForegroundId), nextDecisionDeadline, System.currentTimeMillis());
+        if (delay != MonitorScheduler.STOPPED) {
+            handler.postDelayed(monitorRunnable, delay);
+        }
+    }
+
+    // Runs a tick now, e.g. after the screen turns on or the blocklist changes
+    private void wakeMonitor() {
+        handler.post(() -> {
+            if (isMonitoring && monitorRunnable != null) {
+                handler.removeCallbacks(monitorRunnable);
+                handler.post(monitorRunnable);
+            }
+        });
+    }
+
+    private void registerScreenReceiver() {
+        if (screenReceiver != null) {
+            return;
+        }
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        screenOn = powerManager == null || powerManager.isInteractive();
+        screenReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context ctx, Intent intent) {
+                screenOn = Intent.ACTION_SCREEN_ON.equals(intent.getAction());
+                if (screenOn) {
+                    wakeMonitor();
+                }
+                // Screen off: the next scheduled tick sees screenOn=false and parks the loop
+            }
+        };
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        // Delivered on the detection thread so screenOn and the wake share its ordering
+        ContextCompat.registerReceiver(context, screenReceiver, filter, null, handler,
+                ContextCompat.RECEIVER_NOT_EXPORTED);
+    }
 
-                    if (foregroundApp != null && !foregroundApp.equals(context.getPackageName())) {
-                        String appName = getAppName(foregroundApp);
-                        boolean isBlocked = blockedApps.contains(foregroundApp);
-                        boolean isAllowed = allowedThisSession.contains(foregroundApp);
-                        Long lastShown = popupCooldown.get(foregroundApp);
-                        long now = System.currentTimeMillis();
-                        long remainingCooldown = (lastShown == null) ? 0
-                                : Math.max(0, POPUP_COOLDOWN_MS - (now - lastShown));
-                        Log.d(TAG,
-                                "Tick fgApp=" + foregroundApp + " blocked=" + isBlocked + " allowedThisSession="
-                                        + isAllowed + " overlayActive=" + isOverlayActive + " cooldownMs="
-                                        + remainingCooldown + " blockedSize=" + blockedApps.size());
-
-                        // Track when blocked apps are opened
-                        if (isBlocked && !isAllowed) {
-                            // If this is a new blocked app or app was switched to, record the open time
-                            if (!foregroundApp.equals(currentForegroundApp)) {
-                                appOpenTimestamps.put(foregroundApp, now);
-                                // Clear first popup timestamp when app is reopened (new session)
-                                firstPopupShownTimestamps.remove(foregroundApp);
-                                Log.d(TAG, "Recorded open time for " + foregroundApp + " at " + now
-                                        + " (new session, cleared first popup timestamp)");
-                            }
-                        }
-
-                        // Check if we should show the overlay
-                        // CRITICAL: Check for second popup even if app is in allowedThisSession
-                        // allowedThisSession only prevents FIRST popup, not second popup
-                        if (isBlocked && !isOverlayActive) {
-                            // Get when this app was opened
-                            Long appOpenTime = appOpenTimestamps.get(foregroundApp);
-                            Long firstPopupTime = firstPopupShownTimestamps.get(foregroundApp);
-                            long popupDelayMs = popupDelayMinutes * 60 * 1000; // Convert minutes to milliseconds
-
-                            // Determine if we should show popup:
-                            // 1. If no first popup shown yet AND app not in allowed session → show
-                            // immediately (first popup)
-                            // 2. If first popup was shown and X minutes have passed → show again (second
-                            // popup) - regardless of allowedThisSession
-                            boolean shouldShowFirstPopup = (appOpenTime != null && firstPopupTime == null
-                                    && !isAllowed);
-                            boolean shouldShowSecondPopup = (firstPopupTime != null
-                                    && (now - firstPopupTime) >= popupDelayMs);
-                            boolean shouldShowPopup = shouldShowFirstPopup || shouldShowSecondPopup;
-
-                            // Enhanced logging for debugging
-                            long timeSinceOpenMs = appOpenTime != null ? (now - appOpenTime) : 0;
-                            long timeSinceOpenSec = timeSinceOpenMs / 1000;
-                            long timeSinceFirstPopupMs = firstPopupTime != null ? (now - firstPopupTime) : 0;
-                            long timeSinceFirstPopupSec = timeSinceFirstPopupMs / 1000;
-
-                            Log.d(TAG, "Popup check for " + foregroundApp + ": delayMinutes=" + popupDelayMinutes +
-                                    " appOpenTime=" + appOpenTime + " firstPopupTime=" + firstPopupTime +
-                                    " shouldShowFirst=" + shouldShowFirstPopup + " shouldShowSecond="
-                                    + shouldShowSecondPopup +
-                                    " shouldShow=" + shouldShowPopup +
-                                    " timeSinceOpen=" + timeSinceOpenSec + "s" +
-                                    " timeSinceFirstPopup=" + timeSinceFirstPopupSec + "s");
-
-                            if (!shouldShowPopup && firstPopupTime != null) {
-                                long timeRemaining = popupDelayMs - (now - firstPopupTime);
-                                long minutesRemaining = timeRemaining / (60 * 1000);
-                                long secondsRemaining = (timeRemaining % (60 * 1000)) / 1000;
-                                Log.d(TAG,
-                                        "Second popup delay not yet reached for " + foregroundApp + ". "
-                                                + minutesRemaining + "m " + secondsRemaining + "s remaining (need "
-                                                + (popupDelayMs / 1000) + "s total)");
-                            } else if (!shouldShowPopup && appOpenTime == null) {
-                                Log.w(TAG, "WARNING: Cannot show popup for " + foregroundApp
-                                        + " - no app open timestamp recorded");
-                            } else if (shouldShowPopup) {
-                                Log.i(TAG, "✓ Popup should show NOW for " + foregroundApp + "! delayMinutes="
-                                        + popupDelayMinutes + " timeSinceOpen=" + timeSinceOpenSec + "s");
-                            }
-
-                            // Small debounce to avoid double overlay creation when two ticks race
-                            if (now < overlayPendingUntil) {
-                                Log.d(TAG,
-                                        "Overlay debounce active for " + foregroundApp + "; skipping overlay creation");
-                            } else if (lastShown != null && (now - lastShown) < POPUP_COOLDOWN_MS) {
-                                Log.d(TAG, "Cooldown active for " + foregroundApp + ", skipping overlay");
-                            } else if (shouldShowPopup) {
-                                synchronized (overlayLock) {
-                                    if (overlayView != null) {
-                                        Log.d(TAG, "Overlay view already being created for " + foregroundApp
-                                                + "; skipping duplicate call");
-                                    } else {
-                                        // Only call handleBlockedApp if we're not already creating an overlay
-                                        Log.d("AppMonitor", "Blocked app detected: " + appName);
-                                        Log.i(TAG, "Blocked app opened: " + appName);
-
-                                        // Track when first popup is shown (for second popup timing)
-                                        if (firstPopupShownTimestamps.get(foregroundApp) == null) {
-                                            firstPopupShownTimestamps.put(foregroundApp, now);
-                                            Log.d(TAG, "Recording first popup shown time for " + foregroundApp + " at "
-                                                    + now);
-                                        } else {
-                                            Log.d(TAG, "Showing second popup for " + foregroundApp + " (first was at "
-                                                    + firstPopupShownTimestamps.get(foregroundApp) + ")");
-                                        }
-
-                                        overlayPendingUntil = now + OVERLAY_DEBOUNCE_MS;
-                                        handleBlockedApp(foregroundApp, appName);
-                                    }
-                                }
-                            }
-                        }
-
-                        // If user switches away from an allowed app, remove it from allowed session and
-                        // clear timestamps
-                        if (!foregroundApp.equals(currentForegroundApp)) {
-                            if (currentForegroundApp != null && !currentForegroundApp.isEmpty()) {
-                                allowedThisSession.remove(currentForegroundApp);
-                                appOpenTimestamps.remove(currentForegroundApp); // Clear timestamp when switching away
-                                firstPopupShownTimestamps.remove(currentForegroundApp); // Clear first popup timestamp
-                                                                                        // when switching away
-                                Log.d(TAG, "Cleared timestamps for " + currentForegroundApp + " after switching away");
-                            }
-                            currentForegroundApp = foregroundApp;
-                        }
+    // Process-lifetime receiver: day boundaries and cached buckets depend on zone and clock
+    private void registerTimeChangeReceiver() {
+        BroadcastReceiver timeChangeReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context ctx, Intent intent) {
+                Log.i(TAG, "[TIME] " + intent.getAction() + "; resetting day totals and usage buckets");
+                dailyCounter.invalidate();
+                usageCache.invalidate();
+            }
+        };
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        filter.addAction(Intent.ACTION_DATE_CHANGED);
+        ContextCompat.registerReceiver(context, timeChangeReceiver, filter, ContextCompat.RECEIVER_NOT_EXPORTED);
+    }
 
+    private void unregisterScreenReceiver() {
+        if (screenReceiver == null) {
+            return;
+        }
+        try {
+            context.unregisterReceiver(screenReceiver);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Screen receiver was not registered", e);
+        }
+        screenReceiver = null;
+    }
+
+    public Map<String, Object> getSchedulerStats() {
+        return scheduler.getStats();
+    }
+
+    /**
+     * Debug copy of the session table, taken on the detection thread that owns it.
+     * Blocks the caller for at most {@code timeoutMs}.
+     */
+    public List<Map<String, Object>> getSessionSnapshot(long timeoutMs) throws Exception {
+        FutureTask<List<Map<String, Object>>> task =
+                new FutureTask<>(() -> sessions.snapshot(packageRegistry));
+        handler.post(task);
+        return task.get(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Entry point for AppDetectionService: a window-state change moved {@code packageName}
+     * to the front. Runs the same blocking decision as the poll loop, on the monitor
+     * handler, without waiting for the next tick.
+     */
+    public void onForegroundAppChanged(String packageName) {
+        if (!isMonitoring || packageName == null) {
+            return;
+        }
+        handler.post(() -> {
+            try {
+                if (isMonitoring) {
+                    evaluateForegroundApp(packageName);
+                    // The switch may have created a deadline or ended the old backoff
+                    scheduleNextTick();
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error handling window change for " + packageName, e);
+            }
+        });
+    }
+
+    // Blocking decision shared by the poll loop and the accessibility event path.
+    // Per-tick diagnostics go to TraceBuffer (allocation-free), not Log.
+    private void evaluateForegroundApp(String foregroundApp) {
+        if (foregroundApp.equals(context.getPackageName())) {
+            nextDecisionDeadline = 0L;
+            return;
+        }
+
+        long detectedAtMs = SystemClock.uptimeMillis();
+        // One hash lookup per decision; everything below is indexed by appId
+        int appId = packageRegistry.intern(foregroundApp);
+        boolean isBlocked = blocklist.contains(appId);
+        boolean isAllowed = sessions.isAllowed(appId);
+        long now = System.currentTimeMillis();
+        long cooldownLeft = sessions.cooldownRemaining(appId, POPUP_COOLDOWN_MS, now);
+
+        // Track when blocked apps are opened
+        if (isBlocked && !isAllowed) {
+            // If this is a new blocked app or app was switched to, record the open time
+            if (appId != currentForegroundId) {
+                sessions.setOpenTs(appId, now);
+                // Clear first popup timestamp when app is reopened (new session)
+                sessions.setFirstPopupTs(appId, 0L);
+                TraceBuffer.record(TraceBuffer.SESSION_OPENED, foregroundApp, now, 0L);
+            }
+        }
+
+        // Check if we should show the overlay
+        // CRITICAL: Check for second popup even if app is allowed this session
+        // The allowed flag only prevents FIRST popup, not second popup
+        if (isBlocked && !isOverlayActive) {
+            // Get when this app was opened
+            // (0 = not recorded)
+            long appOpenTime = sessions.getOpenTs(appId);
+            long firstPopupTime = sessions.getFirstPopupTs(appId);
+            long popupDelayMs = popupDelayMinutes * 60 * 1000; // Convert minutes to milliseconds
+
+            // Determine if we should show popup:
+            // 1. If no first popup shown yet AND app not in allowed session → show
+            // immediately (first popup)
+            // 2. If first popup was shown and X minutes have passed → show again (second
+            // popup) - regardless of the allowed flag
+            boolean shouldShowFirstPopup = (appOpenTime != 0L && firstPopupTime == 0L
+                    && !isAllowed);
+            boolean shouldShowSecondPopup = (firstPopupTime != 0L
+                    && (now - firstPopupTime) >= popupDelayMs);
+            boolean shouldShowPopup = shouldShowFirstPopup || shouldShowSecondPopup;
+
+            if (TraceBuffer.isEnabled()) {
+                long flags = TraceBuffer.DECISION_BLOCKED
+                        | (isAllowed ? TraceBuffer.DECISION_ALLOWED : 0)
+                        | (shouldShowFirstPopup ? TraceBuffer.DECISION_SHOW_FIRST : 0)
+                        | (shouldShowSecondPopup ? TraceBuffer.DECISION_SHOW_SECOND : 0)
+                        | (appOpenTime == 0L ? TraceBuffer.DECISION_NO_OPEN_TS : 0);
+                TraceBuffer.record(TraceBuffer.DECISION, foregroundApp, flags,
+                        firstPopupTime != 0L ? now - firstPopupTime : -1L);
+            }
+
+            // Small debounce to avoid double overlay creation when two ticks race
+            if (now < overlayPendingUntil) {
+                TraceBuffer.record(TraceBuffer.SKIP_DEBOUNCE, foregroundApp, 0L, 0L);
+            } else if (cooldownLeft > 0) {
+                TraceBuffer.record(TraceBuffer.SKIP_COOLDOWN, foregroundApp, cooldownLeft, 0L);
+            } else if (shouldShowPopup) {
+                // Decide under the lock only; the UI thread takes it in show/removeOverlay, so the
+                // label lookup (a PackageManager IPC on a miss) and listeners run after releasing it.
+                // Decisions are all made on this thread, so nothing else can start an overlay meanwhile.
+                boolean show;
+                synchronized (overlayLock) {
+                    show = !isOverlayActive;
+                    if (show) {
+                        overlayPendingUntil = now + OVERLAY_DEBOUNCE_MS;
+                    }
+                }
+                if (show) {
+                    String appName = getAppName(foregroundApp);
+                    Log.i(TAG, "Blocked app opened: " + appName);
+
+                    // Track when first popup is shown (for second popup timing)
+                    boolean secondPopup = firstPopupTime != 0L;
+                    if (!secondPopup) {
+                        sessions.setFirstPopupTs(appId, now);
                     }
+                    TraceBuffer.record(TraceBuffer.OVERLAY_SHOW, foregroundApp, secondPopup ? 1L : 0L, 0L);
 
-                    // Repeat every second
-                    if (isMonitoring) {
-                        handler.postDelayed(this, 1000);
+                    handleBlockedApp(foregroundApp, appName, detectedAtMs);
+                    interventionCount++;
+                    for (AppDetectionListener listener : listeners) {
+                        listener.onBlockedAppOpened(foregroundApp, appName);
                     }
-                } catch (Exception e) {
-                    Log.e(TAG, "Error monitoring apps", e);
                 }
             }
-        };
+        } else if (TraceBuffer.isEnabled()) {
+            TraceBuffer.record(TraceBuffer.DECISION, foregroundApp,
+                    (isBlocked ? TraceBuffer.DECISION_BLOCKED : 0)
+                            | (isAllowed ? TraceBuffer.DECISION_ALLOWED : 0)
+                            | (isOverlayActive ? TraceBuffer.DECISION_OVERLAY_ACTIVE : 0), -1L);
+        }
 
-        handler.post(monitorRunnable);
+        nextDecisionDeadline = isBlocked ? computeDecisionDeadline(appId, cooldownLeft, now) : 0L;
+
+        // If user switches away from an allowed app, remove it from allowed session and
+        // clear timestamps
+        if (appId != currentForegroundId) {
+            scheduler.onAppSwitched();
+            if (currentForegroundId != PackageRegistry.NO_ID) {
+                // Clear allowed flag, open and first popup timestamps when switching away
+                sessions.endSession(currentForegroundId);
+                TraceBuffer.record(TraceBuffer.SESSION_CLEARED, currentForegroundApp, 0L, 0L);
+            }
+            currentForegroundApp = foregroundApp;
+            currentForegroundId = appId;
+            if (sessionJournal != null) {
+                sessionJournal.setForeground(appId);
+            }
+            if (!listeners.isEmpty()) {
+                // Label only resolved when someone is listening
+                String appName = getAppName(foregroundApp);
+                for (AppDetectionListener listener : listeners) {
+                    listener.onAppDetected(foregroundApp, appName);
+                }
+            }
+        }
+    }
+
+    // Earliest moment the popup decision for a blocked foreground app can change:
+    // the second-popup deadline, the end of the cooldown or of the overlay debounce.
+    // While an overlay is up there is nothing to wait for; removeOverlay() wakes the loop.
+    private long computeDecisionDeadline(int appId, long cooldownLeft, long now) {
+        if (isOverlayActive) {
+            return 0L;
+        }
+        long deadline = 0L;
+        long firstPopupTime = sessions.getFirstPopupTs(appId);
+        if (firstPopupTime != 0L) {
+            deadline = firstPopupTime + popupDelayMinutes * 60 * 1000L;
+        }
+        if (cooldownLeft > 0) {
+            deadline = earliest(deadline, now + cooldownLeft);
+        }
+        if (overlayPendingUntil > now) {
+            deadline = earliest(deadline, overlayPendingUntil);
+        }
+        return deadline;
+    }
+
+    private static long earliest(long a, long b) {
+        return a == 0L ? b : Math.min(a, b);
     }
 
     private String getCurrentForegroundApp() {
         // Prefer UsageEvents for higher fidelity foreground detection
         try {
             long endTime = System.currentTimeMillis();
-            long startTime = endTime - 60000; // look back 60 seconds to capture last foreground event
-
-            UsageEvents events = usageStatsManager.queryEvents(startTime, endTime);
-            UsageEvents.Event event = new UsageEvents.Event();
-            String lastForeground = null;
-            long lastTs = 0;
-
-            while (events != null && events.hasNextEvent()) {
-                events.getNextEvent(event);
-                int type = event.getEventType();
-                long ts = event.getTimeStamp();
-                if (ts >= lastTs) {
-                    if (type == UsageEvents.Event.MOVE_TO_FOREGROUND || type == UsageEvents.Event.ACTIVITY_RESUMED) {
-                        lastForeground = event.getPackageName();
-                        lastTs = ts;
-                    }
-                }
-            }
 
-            if (lastForeground != null) {
-                Log.d(TAG, "UsageEvents detected foreground: " + lastForeground + " at ts=" + lastTs);
-                return lastForeground;
+            // Incremental read: only events newer than the previous tick are fetched
+            String foreground = eventCursor.poll(endTime);
+            if (foreground != null) {
+                TraceBuffer.record(TraceBuffer.FOREGROUND, foreground, eventCursor.getForegroundSinceTs(), 0L);
+                return foreground;
+            }
+            if (eventCursor.hasForegroundState()) {
+                // Events were seen and the last foreground app was paused/backgrounded
+                return null;
             }
 
             // Fallback to aggregated UsageStats if no events found
@@ -372,18 +781,17 @@ public class AppUsageMonitor {
 
     // checks if the app is already being handled by an active overlay to prevent
     // duplicate overlays
-    private void handleBlockedApp(String packageName, String appName) {
+    private void handleBlockedApp(String packageName, String appName, long detectedAtMs) {
         if (isOverlayActive && packageName.equals(lastAppPackage)) {
             Log.d(TAG, "Overlay already active for: " + appName);
             return;
         }
 
-        Log.i(TAG, "Handling blocked app: " + appName);
-        showDelayOverlay(packageName, appName);
+        showDelayOverlay(packageName, appName, detectedAtMs);
     }
 
     // CODE FOR OVERLAY DISPLAY AND INTERACTION show overlay
-    private void showDelayOverlay(String packageName, String appName) {
+    private void showDelayOverlay(String packageName, String appName, long detectedAtMs) {
         // Double-check gate before posting to handler to prevent concurrent overlay
         // creations
         synchronized (overlayLock) {
@@ -393,223 +801,122 @@ public class AppUsageMonitor {
             }
             lastAppPackage = packageName;
             isOverlayActive = true;
-            // Set overlayView to a sentinel to prevent duplicate calls before the handler
-            // executes
-            if (overlayView == null) {
-                overlayView = new View(context); // Sentinel to block duplicate guard checks
-            }
             // Ensure debounce is active when we begin overlay creation
             overlayPendingUntil = System.currentTimeMillis() + OVERLAY_DEBOUNCE_MS;
         }
 
-        Log.i(TAG, "Preparing to show overlay for " + appName + " (" + packageName + ")");
-
-        handler.post(() -> {
+        // Capture settings on the detection thread so the UI command is self-contained
+        final String message = customMessage;
+        final int delaySeconds = customDelayTimeSeconds;
+        runOnUiThread(() -> {
             try {
-                Log.i(TAG, "Overlay handler entered for " + appName + " (" + packageName + ")");
-
-                // Clean up old overlay if it exists
-                if (overlayView != null && overlayView.getParent() != null) {
-                    Log.d(TAG, "Removing old overlay view");
-                    try {
-                        windowManager.removeView(overlayView);
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error removing old overlay", e);
-                    }
-                }
-
                 // POPUP_MARKER: native overlay popup entry point (searchable)
                 Log.i(TAG, "POPUP_MARKER showing delay overlay for " + appName + " (" + packageName + ")");
 
-                /*
-                 * OVERLAY CREATION
-                 * ----------------
-                 * LayoutInflater converts XML layout into a View object that can be displayed.
-                 * Think of it as "building" the UI from the blueprint (delay_overlay.xml).
-                 */
-                LayoutInflater inflater = LayoutInflater.from(context);
-                overlayView = inflater.inflate(R.layout.delay_overlay, null);
-
-                /*
-                 * FIND VIEW COMPONENTS
-                 * --------------------
-                 */
-                TextView titleText = overlayView.findViewById(R.id.title);
-                TextView messageText = overlayView.findViewById(R.id.message);
-                TextView countdownText = overlayView.findViewById(R.id.countdown);
-                ProgressBar progressBar = overlayView.findViewById(R.id.progressBar);
-                Button continueButton = overlayView.findViewById(R.id.continueButton);
-                Button backButton = overlayView.findViewById(R.id.backButton);
-
-                /*
-                 * SET INITIAL TEXT & VISIBILITY
-                 * ------------------------------
-                 */
-                titleText.setText("Pause and reflect. Is this how you want to spend your time?");
-                messageText.setText(
-                        customMessage != null && !customMessage.isEmpty() ? customMessage : "TAKE A MOMENT TO DECIDE");
-
-                // Continue button is visible but disabled in Stitch design
-                continueButton.setEnabled(false);
-                continueButton.setText("CONTINUE TO " + appName.toUpperCase());
-                continueButton.setBackgroundResource(R.drawable.disabled_btn_bg);
-                continueButton.setTextColor(android.graphics.Color.parseColor("#66F1FFE7"));
-
-                /*
-                 * WINDOW MANAGER PARAMETERS
-                 * -------------------------
-                 */
-                WindowManager.LayoutParams params = new WindowManager.LayoutParams(
-                        WindowManager.LayoutParams.MATCH_PARENT,
-                        WindowManager.LayoutParams.MATCH_PARENT,
-                        Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
-                                ? WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY
-                                : WindowManager.LayoutParams.TYPE_PHONE,
-                        WindowManager.LayoutParams.FLAG_LAYOUT_IN_SCREEN |
-                                WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL |
-                                WindowManager.LayoutParams.FLAG_FULLSCREEN,
-                        PixelFormat.TRANSLUCENT);
-
-                params.gravity = Gravity.CENTER;
-
-                overlayView.setFocusable(true);
-                overlayView.setFocusableInTouchMode(true);
-                overlayView.requestFocus();
-
-                windowManager.addView(overlayView, params);
+                // Reuses the pre-inflated view; only text and countdown are reset
+                delayOverlay.show(packageName, appName, message, delaySeconds, detectedAtMs);
 
                 synchronized (overlayLock) {
                     overlayPendingUntil = 0L;
                 }
-
-                /*
-                 * START COUNTDOWN & ANIMATION
-                 * ---------------------------
-                 */
-                startCountdown(countdownText, progressBar, continueButton, customDelayTimeSeconds);
-
-                /*
-                 * CONTINUE BUTTON CLICK HANDLER
-                 * -----------------------------
-                 */
-                continueButton.setOnClickListener(v -> {
-                    Log.d(TAG, "Continue clicked for " + packageName);
-                    allowedThisSession.add(packageName);
-                    popupCooldown.put(packageName, System.currentTimeMillis());
-                    removeOverlay();
-                });
-
-                /*
-                 * BACK BUTTON CLICK HANDLER
-                 * --------------------------
-                 */
-                backButton.setOnClickListener(v -> {
-                    Log.i(TAG, "Back clicked for " + packageName);
-                    allowedThisSession.remove(packageName);
-                    Log.i(TAG, "Back pressed: no cooldown; will show immediately on next open for " + packageName);
-                    removeOverlay();
-                    Intent homeIntent = new Intent(Intent.ACTION_MAIN);
-                    homeIntent.addCategory(Intent.CATEGORY_HOME);
-                    homeIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                    context.startActivity(homeIntent);
-                });
-
-                Log.i(TAG, "Delay overlay shown for " + appName + " (" + packageName + ")[INSIDE HANDLER]");
             } catch (Exception e) {
                 Log.e(TAG, "Overlay handler error", e);
                 synchronized (overlayLock) {
                     overlayPendingUntil = 0L;
                     isOverlayActive = false;
                     lastAppPackage = "";
-                    overlayView = null;
                 }
             }
         });
-        Log.i(TAG, "Overlay shown for " + appName + " (" + packageName + ")[OUTSIDE HANDLER]");
+    }
+
+    // Safe to call from any thread; the view work itself is handed to the UI thread
+    private void removeOverlay() {
+        runOnUiThread(() -> {
+            TraceBuffer.record(TraceBuffer.OVERLAY_HIDE, lastAppPackage, 0L, 0L);
+            delayOverlay.hide();
+            synchronized (overlayLock) {
+                isOverlayActive = false;
+                // NOTE: We DON'T clear the open or first popup timestamps here
+                // because we want to track the second popup timing even after first popup is
+                // dismissed
+                // Timestamps are only cleared when user switches away from the app
+                lastAppPackage = "";
+                overlayPendingUntil = 0L;
+            }
+            // Recompute deadlines (e.g. second popup after Continue) instead of waiting out a backoff
+            wakeMonitor();
+        });
     }
 
     /*
-     * COUNTDOWN TIMER WITH ANIMATION
-     * -------------------------------
+     * UI HANDOFF
+     * ----------
+     * The only path from the detection thread to the UI thread. Commands posted here
+     * must carry everything they need (package, label, message, delay) so the UI side
+     * never reads detection-thread state.
      */
-    private void startCountdown(TextView countdownText, ProgressBar progressBar, Button continueButton, int seconds) {
-        final int totalSeconds = seconds;
-        progressBar.setProgress(0);
+    private void runOnUiThread(Runnable command) {
+        mainHandler.post(command);
+    }
 
-        handler.postDelayed(new Runnable() {
-            int remaining = seconds;
+    // Served from the LRU label cache; PackageManager is only hit on a miss
+    public String getAppName(String packageName) {
+        return labelCache.getLabel(packageName);
+    }
 
-            @Override
-            public void run() {
-                if (overlayView == null) {
-                    Log.d(TAG, "Countdown stopped: overlay was removed");
-                    return;
-                }
+    public AppLabelCache getLabelCache() {
+        return labelCache;
+    }
 
-                /*
-                 * UPDATE COUNTDOWN TEXT (Format 0:00)
-                 */
-                if (remaining > 0) {
-                    int mins = remaining / 60;
-                    int secs = remaining % 60;
-                    countdownText.setText(String.format("%d:%02d", mins, secs));
-                } else {
-                    countdownText.setText("READY");
-                }
+    public InstalledAppsIndex getInstalledApps() {
+        return installedApps;
+    }
 
-                /*
-                 * UPDATE PROGRESS BAR ANIMATION
-                 */
-                int progressPercent = (int) (((float) (totalSeconds - remaining) / totalSeconds) * 100);
-                progressBar.setProgress(progressPercent);
-
-                remaining--;
-
-                if (remaining >= 0) {
-                    handler.postDelayed(this, 1000);
-                } else {
-                    progressBar.setProgress(100);
-                    // Enable continue button as per Stitch design
-                    continueButton.setEnabled(true);
-                    continueButton.setBackgroundResource(R.drawable.primary_btn_bg);
-                    continueButton.setTextColor(android.graphics.Color.parseColor("#1A1B41"));
-                    Log.d(TAG, "Countdown complete for " + lastAppPackage + " - Continue button enabled");
-                }
-            }
-        }, 0);
+    public AppIconCache getIconCache() {
+        return iconCache;
     }
 
-    private void removeOverlay() {
-        if (overlayView != null) {
-            windowManager.removeView(overlayView);
-            overlayView = null;
+    public UsageAggregationCache getUsageCache() {
+        return usageCache;
+    }
+
+    // Throws IllegalStateException if the history store could not be opened
+    public UsageTimeSeriesStore getUsageHistory() {
+        awaitStores();
+        if (usageHistory == null) {
+            throw new IllegalStateException("Usage history unavailable");
         }
-        isOverlayActive = false;
-        // NOTE: We DON'T clear appOpenTimestamps or firstPopupShownTimestamps here
-        // because we want to track the second popup timing even after first popup is
-        // dismissed
-        // Timestamps are only cleared when user switches away from the app
-        lastAppPackage = "";
-        overlayPendingUntil = 0L;
+        return usageHistory;
     }
 
-    public String getAppName(String packageName) {
-        try {
-            PackageManager pm = context.getPackageManager();
-            ApplicationInfo appInfo = pm.getApplicationInfo(packageName, 0);
-            return pm.getApplicationLabel(appInfo).toString();
-        } catch (PackageManager.NameNotFoundException e) {
-            return packageName;
+    // Throws IllegalStateException if the rollup store could not be opened
+    public UsageRollupStore getUsageRollups() {
+        awaitStores();
+        if (usageRollups == null) {
+            throw new IllegalStateException("Usage rollups unavailable");
         }
+        return usageRollups;
     }
 
+    // How long minute and hourly/daily history is kept before it is compacted away
+    public long setRetentionPolicy(UsageRollupStore.RetentionPolicy policy) {
+        return store().edit(settings -> settings.setRetention(policy)).revision;
+    }
+
+    public DailyScreenTimeCounter getDailyCounter() {
+        return dailyCounter;
+    }
+
+    // AppOps lookup instead of a throwaway queryUsageStats IPC; stats calls check this every time
     private boolean hasUsageStatsPermission() {
-        long currentTime = System.currentTimeMillis();
-        List<UsageStats> stats = usageStatsManager.queryUsageStats(
-                UsageStatsManager.INTERVAL_DAILY,
-                currentTime - 1000 * 60,
-                currentTime);
-        return stats != null && !stats.isEmpty();
+        AppOpsManager appOps = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+        if (appOps == null) {
+            return false;
+        }
+        int mode = appOps.checkOpNoThrow(AppOpsManager.OPSTR_GET_USAGE_STATS,
+                Process.myUid(), context.getPackageName());
+        return mode == AppOpsManager.MODE_ALLOWED;
     }
 
     private void requestUsageStatsPermission() {
@@ -642,85 +949,143 @@ public class AppUsageMonitor {
             handler.removeCallbacks(monitorRunnable);
             Log.d(TAG, "Removed monitor runnable from handler");
         }
+        unregisterScreenReceiver();
 
-        // Clear all app open timestamps and first popup timestamps when monitoring
-        // stops
-        appOpenTimestamps.clear();
-        firstPopupShownTimestamps.clear();
-        Log.d(TAG, "Cleared all app open timestamps and first popup timestamps");
+        // Session state belongs to the detection thread; reset it there
+        handler.post(() -> {
+            // Next start re-primes the cursor instead of replaying the idle gap
+            eventCursor.reset();
+            nextDecisionDeadline = 0L;
+
+            // Clear all app open timestamps and first popup timestamps when monitoring
+            // stops
+            sessions.clearTimelines();
+            Log.d(TAG, "Cleared all app open timestamps and first popup timestamps");
+        });
 
         removeOverlay();
         Log.d(TAG, "stopMonitoring completed");
     }
 
-    public void setBlockedApps(Set<String> apps) {
-        this.blockedApps = apps;
+    // Replaces and persists the blocklist; returns the config version that carries it
+    public long saveBlockedApps(Set<String> apps) {
+        return store().edit(settings -> settings.setBlockedApps(apps)).revision;
     }
 
-    public void setListener(AppDetectionListener listener) {
-        this.listener = listener;
+    /**
+     * Adds/removes packages against blocklist version expectedVersion (negative: no check).
+     * Returns the resulting snapshot; its blocklistVersion is the caller's next expectedVersion.
+     */
+    public SettingsStore.Settings updateBlockedApps(long expectedVersion, Collection<String> add,
+                                                   Collection<String> remove)
+            throws SettingsStore.VersionConflictException {
+        return store().editBlocklist(expectedVersion, add, remove);
+    }
+
+    // Persisted monitoring switch; false if the settings store could not be opened
+    public boolean isMonitoringEnabled() {
+        awaitStores();
+        return settingsStore != null && settingsStore.get().monitoringEnabled;
+    }
+
+    public SettingsStore.Settings getSettings() {
+        return store().get();
+    }
+
+    // Single volatile write; the detection thread picks it up on its next decision
+    private void publishBlocklist(BlocklistSnapshot snapshot) {
+        this.blocklist = snapshot;
+        TraceBuffer.record(TraceBuffer.BLOCKLIST, null, snapshot.size(), 0L);
+        // A parked loop (empty blocklist) must restart once something is blocked
+        if (isMonitoring) {
+            wakeMonitor();
+        }
+    }
+
+    public long getInterventionCount() {
+        return interventionCount;
+    }
+
+    public void addListener(AppDetectionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(AppDetectionListener listener) {
+        listeners.remove(listener);
     }
 
     public Set<String> getBlockedApps() {
-        return new HashSet<>(blockedApps);
+        // The stored blocklist is applied by openStores()
+        awaitStores();
+        return new HashSet<>(blocklist.getPackages());
+    }
+
+    /**
+     * Applies several settings as one snapshot: one publish, one disk write, and the
+     * detection loop switches to it between ticks. Callers validate first.
+     */
+    public long applyConfig(SettingsStore.Editor editor) {
+        SettingsStore.Settings applied = store().edit(editor);
+        Log.d(TAG, "Config version " + applied.revision + " published (" + applied.blockedApps.size()
+                + " blocked apps)");
+        return applied.revision;
     }
 
-    public void setDelayMessage(String message) {
-        if (message != null && !message.trim().isEmpty()) {
-            this.customMessage = message;
-            Log.d(TAG, "Custom delay message updated: " + message);
+    // The setters below return the config version to await; the fields change when it is applied
+    public long setDelayMessage(String message) {
+        if (message == null || message.trim().isEmpty()) {
+            return store().get().revision;
         }
+        Log.d(TAG, "Custom delay message updated: " + message);
+        return store().edit(settings -> settings.setDelayMessage(message)).revision;
     }
 
-    public void setDelayTime(int seconds) {
+    public long setDelayTime(int seconds) {
         // This method can be used to set a custom delay time for the countdown
         // For now, we will just log it, as the countdown is currently hardcoded to 15
         // seconds
-        if (seconds < 5)
-            seconds = 5; // Minimum 5 seconds
-        if (seconds > 120)
-            seconds = 120; // Maximum 120 seconds
+        if (seconds < MIN_DELAY_SECONDS)
+            seconds = MIN_DELAY_SECONDS;
+        if (seconds > MAX_DELAY_SECONDS)
+            seconds = MAX_DELAY_SECONDS;
 
-        this.customDelayTimeSeconds = seconds;
+        int saved = seconds;
         Log.d(TAG, "Custom delay time set: " + seconds + " seconds");
+        return store().edit(settings -> settings.setDelaySeconds(saved)).revision;
     }
 
-    public void setPopupDelayMinutes(int minutes) {
+    public long setPopupDelayMinutes(int minutes) {
         // Set how long to wait after FIRST popup before showing the popup again
         if (minutes < 0)
             minutes = 0; // Minimum 0 minutes (show immediately again)
-        if (minutes > 60)
-            minutes = 60; // Maximum 60 minutes
+        if (minutes > MAX_POPUP_DELAY_MINUTES)
+            minutes = MAX_POPUP_DELAY_MINUTES;
 
-        this.popupDelayMinutes = minutes;
+        int saved = minutes;
         Log.d(TAG, "Popup delay set: " + minutes + " minutes (first popup shows immediately, second popup after "
                 + minutes + " min)");
 
         // Note: We don't clear timestamps when delay changes - let them continue
         // tracking
+        return store().edit(settings -> settings.setPopupDelayMinutes(saved)).revision;
     }
 
     // TO IMPLEMENT
 
-    // New methods for getting app usage statistics
+    // New methods for getting app usage statistics, served from usageCache unless noted
+    // Exact: sessionized from raw events while they are still retained, else daily buckets
     public long getAppUsageTime(String packageName, long startTime, long endTime) {
         try {
             if (!hasUsageStatsPermission()) {
                 return 0;
             }
-
-            List<UsageStats> stats = usageStatsManager.queryUsageStats(
-                    UsageStatsManager.INTERVAL_DAILY,
-                    startTime,
-                    endTime);
-
-            long totalTime = 0;
-            for (UsageStats stat : stats) {
-                if (stat.getPackageName().equals(packageName)) {
-                    totalTime += stat.getTotalTimeInForeground();
-                }
+            long now = System.currentTimeMillis();
+            if (startTime >= now - RAW_EVENTS_RETENTION_MS) {
+                return new UsageSessionizer(usageStatsManager, startTime, Collections.singleton(packageName))
+                        .advance(Math.min(endTime, now))
+                        .getTotal(packageName);
             }
-            return totalTime;
+            return usageCache.getPackageTotal(packageName, startTime, endTime);
         } catch (Exception e) {
             Log.e(TAG, "Error getting app usage time for " + packageName, e);
             return 0;
@@ -732,17 +1097,7 @@ public class AppUsageMonitor {
             if (!hasUsageStatsPermission()) {
                 return 0;
             }
-
-            List<UsageStats> stats = usageStatsManager.queryUsageStats(
-                    UsageStatsManager.INTERVAL_DAILY,
-                    startTime,
-                    endTime);
-
-            long totalTime = 0;
-            for (UsageStats stat : stats) {
-                totalTime += stat.getTotalTimeInForeground();
-            }
-            return totalTime;
+            return usageCache.getDeviceTotal(startTime, endTime);
         } catch (Exception e) {
             Log.e(TAG, "Error getting total screen time", e);
             return 0;
@@ -757,23 +1112,8 @@ public class AppUsageMonitor {
                 return appUsageList;
             }
 
-            List<UsageStats> stats = usageStatsManager.queryUsageStats(
-                    UsageStatsManager.INTERVAL_DAILY,
-                    startTime,
-                    endTime);
-
-            // Group by package name and sum up usage time
-            Map<String, Long> appUsageMap = new HashMap<>();
-            for (UsageStats stat : stats) {
-                String packageName = stat.getPackageName();
-                long usageTime = stat.getTotalTimeInForeground();
-
-                if (appUsageMap.containsKey(packageName)) {
-                    appUsageMap.put(packageName, appUsageMap.get(packageName) + usageTime);
-                } else {
-                    appUsageMap.put(packageName, usageTime);
-                }
-            }
+            // Already grouped by package name and summed across buckets
+            Map<String, Long> appUsageMap = usageCache.getTotals(startTime, endTime);
 
             // Convert to AppUsageInfo objects and sort by usage time
             for (Map.Entry<String, Long> entry : appUsageMap.entrySet()) {
@@ -799,16 +1139,59 @@ public class AppUsageMonitor {
         return appUsageList;
     }
 
+    /**
+     * Usage report for a set of packages over [startTime, endTime]: foreground time,
+     * label and launch count for each, from one queryEvents call and one pass over it.
+     * Packages with no foreground time are left out, matching getBlockedAppsUsageStats.
+     */
+    public List<AppUsageInfo> getUsageReport(Set<String> packages, long startTime, long endTime) {
+        List<AppUsageInfo> report = new ArrayList<>();
+        if (packages == null || packages.isEmpty()) {
+            return report;
+        }
+        try {
+            if (!hasUsageStatsPermission()) {
+                return report;
+            }
+            // One queryEvents call, one pass: exact clipped sessions plus launch counts
+            UsageSessionizer sessions = new UsageSessionizer(usageStatsManager, startTime, packages)
+                    .advance(Math.min(endTime, System.currentTimeMillis()));
+            for (String packageName : packages) {
+                long usageTime = sessions.getTotal(packageName);
+                if (usageTime > 0) {
+                    report.add(new AppUsageInfo(packageName, getAppName(packageName), usageTime,
+                            sessions.getLaunches(packageName)));
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error building usage report", e);
+        }
+        return report;
+    }
+
+    // Since local midnight, from the running daily counter (no query unless it went stale)
     public long getTodayScreenTime() {
-        long endTime = System.currentTimeMillis();
-        long startTime = endTime - (24 * 60 * 60 * 1000); // Last 24 hours
-        return getTotalScreenTime(startTime, endTime);
+        try {
+            if (!hasUsageStatsPermission()) {
+                return 0;
+            }
+            return dailyCounter.getTodayTotal();
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting today's screen time", e);
+            return 0;
+        }
     }
 
     public long getAppTodayUsageTime(String packageName) {
-        long endTime = System.currentTimeMillis();
-        long startTime = endTime - (24 * 60 * 60 * 1000); // Last 24 hours
-        return getAppUsageTime(packageName, startTime, endTime);
+        try {
+            if (!hasUsageStatsPermission()) {
+                return 0;
+            }
+            return dailyCounter.getTodayTotal(packageName);
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting today's usage time for " + packageName, e);
+            return 0;
+        }
     }
 
     // Helper class to hold app usage information
@@ -816,11 +1199,17 @@ public class AppUsageMonitor {
         public String packageName;
         public String appName;
         public long usageTime;
+        public int launchCount;
 
         public AppUsageInfo(String packageName, String appName, long usageTime) {
+            this(packageName, appName, usageTime, 0);
+        }
+
+        public AppUsageInfo(String packageName, String appName, long usageTime, int launchCount) {
             this.packageName = packageName;
             this.appName = appName;
             this.usageTime = usageTime;
+            this.launchCount = launchCount;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+package com.doomscrollstopper;
+
+/*
+ * BlocklistSnapshot
+ * ------------------
+ * Immutable view of the blocked apps at one point in time.
+ * AppUsageMonitor publishes a new snapshot through a single volatile reference on every
+ * blocklist change; the detection thread reads that reference once per decision.
+ *
+ * Notes:
+ *  - contains(id) is a BitSet probe on the package's PackageRegistry ID; no string hashing.
+ *  - The BitSet is built before publication and never mutated afterwards, so readers need
+ *    no lock and always see either the old or the new list, never a mix.
+ *  - The package names are kept alongside for persistence and getBlockedApps().
+ */
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public final class BlocklistSnapshot {
+    public static final BlocklistSnapshot EMPTY = new BlocklistSnapshot(new BitSet(), Collections.emptySet());
+
+    private final BitSet ids;
+    private final Set<String> packages;
+
+    private BlocklistSnapshot(BitSet ids, Set<String> packages) {
+        this.ids = ids;
+        this.packages = packages;
+    }
+
+    // Interns every package into the registry and freezes the result
+    public static BlocklistSnapshot of(Set<String> apps, PackageRegistry registry) {
+        if (apps == null || apps.isEmpty()) {
+            return EMPTY;
+        }
+        BitSet ids = new BitSet();
+        Set<String> packages = new HashSet<>();
+        for (String app : apps) {
+            if (app != null) {
+                ids.set(registry.intern(app));
+                packages.add(app);
+            }
+        }
+        return new BlocklistSnapshot(ids, Collections.unmodifiableSet(packages));
+    }
+
+    /**
+     * The snapshot after a delta, for when the caller already holds the resulting package set
+     * (e.g. a SettingsStore snapshot). Interns and hashes only the changed packages, but the
+     * BitSet is still cloned (one word per 64 registry IDs) to keep snapshots immutable.
+     * `packages` is shared, not copied, so it must be unmodifiable.
+     */
+    public BlocklistSnapshot withChanges(Set<String> packages, Collection<String> added,
+                                         Collection<String> removed, PackageRegistry registry) {
+        if (packages.isEmpty()) {
+            return EMPTY;
+        }
+        BitSet next = (BitSet) ids.clone();
+        for (String app : added) {
+            next.set(registry.intern(app));
+        }
+        for (String app : removed) {
+            int id = registry.idOf(app);
+            if (id != PackageRegistry.NO_ID) {
+                next.clear(id);
+            }
+        }
+        return new BlocklistSnapshot(next, packages);
+    }
+
+    public boolean contains(int id) {
+        return id >= 0 && ids.get(id);
+    }
+
+    public boolean isEmpty() {
+        return packages.isEmpty();
+    }
+
+    public int size() {
+        return packages.size();
+    }
+
+    // Unmodifiable; copy before handing to code that mutates
+    public Set<String> getPackages() {
+        return packages;
+    }
+}
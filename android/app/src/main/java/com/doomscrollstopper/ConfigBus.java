@@ -0,0 +1,142 @@
+package com.doomscrollstopper;
+
+/*
+ * ConfigBus
+ * ----------
+ * In-process hand-off of settings snapshots from SettingsStore to their consumers (the
+ * AppUsageMonitor engine), stamped with the snapshot's revision as a version.
+ * Responsibilities:
+ *  - Hold the latest published snapshot (volatile; a consumer compares versions and
+ *    applies at its own safe point, e.g. the start of a detection tick)
+ *  - Tell listeners a new version exists (they should only schedule work)
+ *  - Track the applied version and run callbacks waiting for a version to take effect
+ *  - Measure publish-to-apply latency
+ *
+ * Notes:
+ *  - Versions only grow: SettingsStore persists its revision counter.
+ *  - Applying version N implies every version below N is applied too (snapshots are
+ *    complete, not deltas), so waiters for older versions complete with it.
+ */
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class ConfigBus {
+    private static final String TAG = "ConfigBus";
+
+    public interface Listener {
+        void onConfigPublished(SettingsStore.Settings settings);
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Object lock = new Object();
+    private volatile SettingsStore.Settings latest;
+
+    // Guarded by lock
+    private long appliedVersion;
+    // version -> uptime it was published, until applied
+    private final TreeMap<Long, Long> publishedAt = new TreeMap<>();
+    // version -> callbacks to run once it is applied
+    private final TreeMap<Long, List<Runnable>> waiters = new TreeMap<>();
+    private long published = 0L;
+    private long lastApplyLatencyMs = 0L;
+    private long maxApplyLatencyMs = 0L;
+
+    public ConfigBus(SettingsStore.Settings initial) {
+        this.latest = initial;
+    }
+
+    public void publish(SettingsStore.Settings settings) {
+        synchronized (lock) {
+            latest = settings;
+            published++;
+            publishedAt.put(settings.revision, SystemClock.uptimeMillis());
+        }
+        for (Listener listener : listeners) {
+            listener.onConfigPublished(settings);
+        }
+    }
+
+    public SettingsStore.Settings getLatest() {
+        return latest;
+    }
+
+    public long getVersion() {
+        return latest.revision;
+    }
+
+    public long getAppliedVersion() {
+        synchronized (lock) {
+            return appliedVersion;
+        }
+    }
+
+    // Called by the consumer once version is in effect
+    public void markApplied(long version) {
+        List<Runnable> ready = new ArrayList<>();
+        synchronized (lock) {
+            if (version <= appliedVersion) {
+                return;
+            }
+            appliedVersion = version;
+            Long at = publishedAt.get(version);
+            if (at != null) {
+                lastApplyLatencyMs = SystemClock.uptimeMillis() - at;
+                maxApplyLatencyMs = Math.max(maxApplyLatencyMs, lastApplyLatencyMs);
+            }
+            publishedAt.headMap(version, true).clear();
+            Map<Long, List<Runnable>> done = waiters.headMap(version, true);
+            for (List<Runnable> callbacks : done.values()) {
+                ready.addAll(callbacks);
+            }
+            done.clear();
+        }
+        Log.d(TAG, "[APPLIED] version=" + version + " latency=" + lastApplyLatencyMs + "ms");
+        for (Runnable callback : ready) {
+            callback.run();
+        }
+    }
+
+    // Runs callback (on the applying thread, or right here) once version is applied
+    public void whenApplied(long version, Runnable callback) {
+        synchronized (lock) {
+            if (version > appliedVersion) {
+                List<Runnable> callbacks = waiters.get(version);
+                if (callbacks == null) {
+                    callbacks = new ArrayList<>();
+                    waiters.put(version, callbacks);
+                }
+                callbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (lock) {
+            stats.put("version", latest.revision);
+            stats.put("appliedVersion", appliedVersion);
+            stats.put("published", published);
+            stats.put("lastApplyLatencyMs", lastApplyLatencyMs);
+            stats.put("maxApplyLatencyMs", maxApplyLatencyMs);
+        }
+        return stats;
+    }
+}
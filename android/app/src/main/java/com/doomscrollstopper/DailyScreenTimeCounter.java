@@ -0,0 +1,221 @@
+package com.doomscrollstopper;
+
+/*
+ * DailyScreenTimeCounter
+ * -----------------------
+ * Running foreground-time totals for the current calendar day in the device's time zone.
+ * Responsibilities:
+ *  - Answer "screen time today" (device total and per app) from memory
+ *  - Roll over at local midnight; DST days are 23 or 25 hours long, as Calendar computes them
+ *  - Start over when the time zone, wall clock or date is changed (see invalidate())
+ *
+ * Notes on Performance:
+ *  - Seeded once per day with a single UsageSessionizer pass from local midnight to now.
+ *  - While monitoring runs, ForegroundEventCursor forwards the events each tick already
+ *    reads (EventListener), so keeping the total current costs no extra queries.
+ *  - If nothing has fed it for STALE_MS (monitoring stopped), a read advances the
+ *    sessionizer itself, which only fetches events since the last advance.
+ *  - The app in front is counted up to the moment of the read.
+ *  - Thread-safe: fed on the detection thread, read from the bridge. UsageStats queries
+ *    (seeding a day, catching up a stale counter) run without holding the lock, so the
+ *    detection thread never waits on a reader's IPC; the results are merged under the lock.
+ *    Events fed while a day is being seeded are buffered and replayed on top of the seed.
+ */
+
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageStatsManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DailyScreenTimeCounter implements ForegroundEventCursor.EventListener {
+    private static final String TAG = "DailyScreenTimeCounter";
+    private static final long STALE_MS = 60 * 1000;
+
+    private static final class PendingEvent {
+        final int type;
+        final String packageName;
+        final long ts;
+
+        PendingEvent(int type, String packageName, long ts) {
+            this.type = type;
+            this.packageName = packageName;
+            this.ts = ts;
+        }
+    }
+
+    private final UsageStatsManager usageStatsManager;
+    // Guarded by this
+    private long dayStart = 0L;
+    private long dayEnd = 0L;
+    // Null until the first read of the day (or after invalidate())
+    private UsageSessionizer today;
+    // Bumped whenever day boundaries are dropped; a seed started before is discarded
+    private int generation = 0;
+    // A reader is seeding today outside the lock; fed events wait here meanwhile
+    private boolean seeding = false;
+    private final List<PendingEvent> pending = new ArrayList<>();
+    private long pendingReadUntil = 0L;
+
+    public DailyScreenTimeCounter(UsageStatsManager usageStatsManager) {
+        this.usageStatsManager = usageStatsManager;
+    }
+
+    @Override
+    public synchronized void onUsageEvent(int type, String packageName, long ts) {
+        if (today == null) {
+            if (seeding && ts < dayEnd) {
+                pending.add(new PendingEvent(type, packageName, ts));
+            }
+            return; // otherwise the next read seeds from the system anyway
+        }
+        if (ts >= dayEnd) {
+            // Crossed midnight; the new day is seeded lazily on the next read
+            today = null;
+            return;
+        }
+        today.feed(type, packageName, ts);
+    }
+
+    @Override
+    public synchronized void onEventsRead(long until) {
+        if (today != null) {
+            today.markAdvanced(Math.min(until, dayEnd));
+        } else if (seeding) {
+            pendingReadUntil = Math.max(pendingReadUntil, until);
+        }
+    }
+
+    // Foreground ms of all apps since local midnight
+    public long getTodayTotal() {
+        long total = 0L;
+        for (long value : getTodayTotals().values()) {
+            total += value;
+        }
+        return total;
+    }
+
+    // Foreground ms of packageName since local midnight
+    public long getTodayTotal(String packageName) {
+        long now = System.currentTimeMillis();
+        catchUp(now);
+        synchronized (this) {
+            return today != null ? today.getTotalAsOf(packageName, now) : 0L;
+        }
+    }
+
+    // Package -> foreground ms since local midnight; a fresh copy
+    public Map<String, Long> getTodayTotals() {
+        long now = System.currentTimeMillis();
+        catchUp(now);
+        synchronized (this) {
+            return today != null ? today.getTotalsAsOf(now) : new HashMap<>();
+        }
+    }
+
+    public long getDayStart() {
+        catchUp(System.currentTimeMillis());
+        synchronized (this) {
+            return dayStart;
+        }
+    }
+
+    // Time zone, clock or date changed: day boundaries and seeded totals are no longer valid
+    public synchronized void invalidate() {
+        today = null;
+        dayStart = 0L;
+        dayEnd = 0L;
+        generation++;
+        Log.d(TAG, "[INVALIDATE] day boundaries recomputed on next read");
+    }
+
+    // Seeds or advances today as of now. Decides under the lock, queries without it and
+    // merges under it again; a result made stale by a concurrent change is dropped.
+    private void catchUp(long now) {
+        UsageSessionizer existing;
+        long start;
+        long from;
+        int seenGeneration;
+        synchronized (this) {
+            if (now < dayStart || now >= dayEnd) {
+                computeDay(now);
+                today = null;
+                generation++;
+            }
+            existing = today;
+            if (existing != null && now - existing.getAdvancedTo() <= STALE_MS) {
+                return;
+            }
+            start = dayStart;
+            from = existing != null ? existing.getAdvancedTo() : 0L;
+            seenGeneration = generation;
+            if (existing == null && !seeding) {
+                seeding = true;
+                pending.clear();
+                pendingReadUntil = 0L;
+            }
+        }
+
+        if (existing == null) {
+            UsageSessionizer fresh = new UsageSessionizer(usageStatsManager, start, null).advance(now);
+            synchronized (this) {
+                if (seenGeneration == generation && today == null) {
+                    // feed() ignores anything the seed query already covered
+                    for (PendingEvent event : pending) {
+                        fresh.feed(event.type, event.packageName, event.ts);
+                    }
+                    if (pendingReadUntil > 0L) {
+                        fresh.markAdvanced(Math.min(pendingReadUntil, dayEnd));
+                    }
+                    today = fresh;
+                    Log.d(TAG, "[SEED] day starting " + start + ", " + pending.size() + " buffered events");
+                }
+                seeding = false;
+                pending.clear();
+                pendingReadUntil = 0L;
+            }
+        } else {
+            List<PendingEvent> events = readEvents(from, now);
+            synchronized (this) {
+                // Only if nobody fed or advanced it meanwhile; otherwise it is current already
+                if (today == existing && existing.getAdvancedTo() == from) {
+                    for (PendingEvent event : events) {
+                        existing.feed(event.type, event.packageName, event.ts);
+                    }
+                    existing.markAdvanced(Math.min(now, dayEnd));
+                }
+            }
+        }
+    }
+
+    private List<PendingEvent> readEvents(long from, long until) {
+        List<PendingEvent> result = new ArrayList<>();
+        UsageEvents events = usageStatsManager.queryEvents(from, until);
+        UsageEvents.Event event = new UsageEvents.Event();
+        while (events != null && events.hasNextEvent()) {
+            events.getNextEvent(event);
+            long ts = event.getTimeStamp();
+            if (ts >= from && ts < until) {
+                result.add(new PendingEvent(event.getEventType(), event.getPackageName(), ts));
+            }
+        }
+        return result;
+    }
+
+    // Local midnight on both sides of now, honoring DST transitions
+    private void computeDay(long now) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        dayStart = calendar.getTimeInMillis();
+        calendar.add(Calendar.DAY_OF_YEAR, 1);
+        dayEnd = calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,235 @@
+package com.doomscrollstopper;
+
+/*
+ * DelayOverlay
+ * -------------
+ * The full-screen "pause and reflect" window shown over a blocked app.
+ * The view tree (R.layout.delay_overlay), its child views, WindowManager params and
+ * click listeners are built once by prepare() and reused for every intervention;
+ * show() only rebinds the per-app text and restarts the countdown.
+ *
+ * Notes:
+ *  - UI thread only. AppUsageMonitor reaches it through its runOnUiThread() handoff.
+ *  - The time from detection to the overlay's first frame is measured on every show
+ *    (detection timestamp in, OnPreDrawListener out) and logged.
+ *  - The countdown is a single reusable Runnable, cancelled on hide().
+ */
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.PixelFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Gravity;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.view.WindowManager;
+import android.widget.Button;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+public class DelayOverlay {
+    private static final String TAG = "DelayOverlay";
+    private static final int CONTINUE_DISABLED_TEXT = Color.parseColor("#66F1FFE7");
+    private static final int CONTINUE_ENABLED_TEXT = Color.parseColor("#1A1B41");
+
+    public interface Callbacks {
+        void onContinue(String packageName);
+
+        void onBack(String packageName);
+    }
+
+    private final Context context;
+    private final WindowManager windowManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Callbacks callbacks;
+
+    private View root;
+    private TextView messageText;
+    private TextView countdownText;
+    private ProgressBar progressBar;
+    private Button continueButton;
+    private WindowManager.LayoutParams params;
+
+    // Per-show state
+    private String boundPackage = "";
+    private int totalSeconds;
+    private int remaining;
+    private long detectedAtMs;
+
+    private final Runnable countdownTick = new Runnable() {
+        @Override
+        public void run() {
+            /*
+             * UPDATE COUNTDOWN TEXT (Format 0:00)
+             */
+            if (remaining > 0) {
+                int mins = remaining / 60;
+                int secs = remaining % 60;
+                countdownText.setText(String.format("%d:%02d", mins, secs));
+            } else {
+                countdownText.setText("READY");
+            }
+
+            /*
+             * UPDATE PROGRESS BAR ANIMATION
+             */
+            int progressPercent = (int) (((float) (totalSeconds - remaining) / totalSeconds) * 100);
+            progressBar.setProgress(progressPercent);
+
+            remaining--;
+
+            if (remaining >= 0) {
+                mainHandler.postDelayed(this, 1000);
+            } else {
+                progressBar.setProgress(100);
+                // Enable continue button as per Stitch design
+                continueButton.setEnabled(true);
+                continueButton.setBackgroundResource(R.drawable.primary_btn_bg);
+                continueButton.setTextColor(CONTINUE_ENABLED_TEXT);
+                Log.d(TAG, "Countdown complete for " + boundPackage + " - Continue button enabled");
+            }
+        }
+    };
+
+    // One-shot per show: logs detection -> first overlay frame
+    private final ViewTreeObserver.OnPreDrawListener firstFrameListener = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            root.getViewTreeObserver().removeOnPreDrawListener(this);
+            long latencyMs = SystemClock.uptimeMillis() - detectedAtMs;
+            Log.i(TAG, "[LATENCY] detection->overlay visible " + latencyMs + "ms for " + boundPackage);
+            return true;
+        }
+    };
+
+    public DelayOverlay(Context context, Callbacks callbacks) {
+        this.context = context;
+        this.windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        this.callbacks = callbacks;
+    }
+
+    /**
+     * Inflates the view tree and builds the window params once. Safe to call repeatedly;
+     * called ahead of time when monitoring starts so the first intervention skips inflation.
+     */
+    public void prepare() {
+        if (root != null) {
+            return;
+        }
+        long start = SystemClock.uptimeMillis();
+
+        /*
+         * OVERLAY CREATION
+         * ----------------
+         * LayoutInflater converts XML layout into a View object that can be displayed.
+         * Think of it as "building" the UI from the blueprint (delay_overlay.xml).
+         */
+        root = LayoutInflater.from(context).inflate(R.layout.delay_overlay, null);
+
+        /*
+         * FIND VIEW COMPONENTS
+         * --------------------
+         */
+        TextView titleText = root.findViewById(R.id.title);
+        messageText = root.findViewById(R.id.message);
+        countdownText = root.findViewById(R.id.countdown);
+        progressBar = root.findViewById(R.id.progressBar);
+        continueButton = root.findViewById(R.id.continueButton);
+        Button backButton = root.findViewById(R.id.backButton);
+
+        titleText.setText("Pause and reflect. Is this how you want to spend your time?");
+
+        /*
+         * WINDOW MANAGER PARAMETERS
+         * -------------------------
+         */
+        params = new WindowManager.LayoutParams(
+                WindowManager.LayoutParams.MATCH_PARENT,
+                WindowManager.LayoutParams.MATCH_PARENT,
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                        ? WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY
+                        : WindowManager.LayoutParams.TYPE_PHONE,
+                WindowManager.LayoutParams.FLAG_LAYOUT_IN_SCREEN |
+                        WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL |
+                        WindowManager.LayoutParams.FLAG_FULLSCREEN,
+                PixelFormat.TRANSLUCENT);
+        params.gravity = Gravity.CENTER;
+
+        root.setFocusable(true);
+        root.setFocusableInTouchMode(true);
+
+        /*
+         * BUTTON CLICK HANDLERS
+         * ---------------------
+         * Bound once; they act on whichever package the overlay is currently showing.
+         */
+        continueButton.setOnClickListener(v -> {
+            Log.d(TAG, "Continue clicked for " + boundPackage);
+            callbacks.onContinue(boundPackage);
+        });
+        backButton.setOnClickListener(v -> {
+            Log.i(TAG, "Back clicked for " + boundPackage);
+            callbacks.onBack(boundPackage);
+        });
+
+        Log.d(TAG, "[PREPARE] Overlay inflated in " + (SystemClock.uptimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Rebinds the overlay for {@code packageName} and attaches it if it is not already on screen.
+     *
+     * @param detectedAtMs SystemClock.uptimeMillis() when the blocked app was detected
+     */
+    public void show(String packageName, String appName, String message, int delaySeconds, long detectedAtMs) {
+        prepare();
+        this.boundPackage = packageName;
+        this.detectedAtMs = detectedAtMs;
+
+        /*
+         * SET INITIAL TEXT & VISIBILITY
+         * ------------------------------
+         */
+        messageText.setText(message != null && !message.isEmpty() ? message : "TAKE A MOMENT TO DECIDE");
+
+        // Continue button is visible but disabled in Stitch design
+        continueButton.setEnabled(false);
+        continueButton.setText("CONTINUE TO " + appName.toUpperCase());
+        continueButton.setBackgroundResource(R.drawable.disabled_btn_bg);
+        continueButton.setTextColor(CONTINUE_DISABLED_TEXT);
+
+        if (root.getParent() == null) {
+            root.getViewTreeObserver().addOnPreDrawListener(firstFrameListener);
+            windowManager.addView(root, params);
+        }
+        root.requestFocus();
+
+        /*
+         * START COUNTDOWN & ANIMATION
+         * ---------------------------
+         */
+        mainHandler.removeCallbacks(countdownTick);
+        totalSeconds = delaySeconds;
+        remaining = delaySeconds;
+        progressBar.setProgress(0);
+        mainHandler.post(countdownTick);
+    }
+
+    // Detaches the overlay but keeps the view tree for the next intervention
+    public void hide() {
+        mainHandler.removeCallbacks(countdownTick);
+        if (root != null && root.getParent() != null) {
+            root.getViewTreeObserver().removeOnPreDrawListener(firstFrameListener);
+            try {
+                windowManager.removeView(root);
+            } catch (Exception e) {
+                Log.e(TAG, "Error removing overlay", e);
+            }
+        }
+        boundPackage = "";
+    }
+}
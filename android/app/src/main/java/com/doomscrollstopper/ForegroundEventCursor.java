@@ -0,0 +1,174 @@
+package com.doomscrollstopper;
+
+/*
+ * ForegroundEventCursor
+ * ----------------------
+ * Stateful reader over UsageEvents that tracks which package is in the foreground.
+ * Responsibilities:
+ *  - Remember the high-water timestamp of the last event processed
+ *  - Read only events newer than that timestamp on each call to poll()
+ *  - Run a small foreground state machine over resume/pause/background events
+ *  - Report each completed foreground interval (package, start, end) to an IntervalListener
+ *  - Forward every newly read event to an EventListener so other consumers share this read
+ *
+ * Notes on Performance:
+ *  - The first poll primes the cursor with a short lookback window; every later poll
+ *    asks UsageStatsManager only for the slice since the previous tick, so the Binder
+ *    payload and the number of events walked stay proportional to what actually happened.
+ *  - The query start is tracked apart from the last event's timestamp: a poll that finds
+ *    nothing still moves the start to now, so an idle device never re-reads old history.
+ *  - ACTIVITY_STOPPED is ignored: inside one app the order is A.pause, B.resume, A.stop,
+ *    so a stop says nothing about whether the package is still in front.
+ *  - Replaying events that share the high-water timestamp is harmless: the state
+ *    machine ends in the same state no matter how often an in-order suffix is applied.
+ *  - Not thread-safe; callers own a single cursor per detection thread.
+ *  - Intervals are emitted only on state transitions, so replayed events emit nothing.
+ *    Priming can re-emit intervals from its lookback window; listeners must tolerate that.
+ */
+
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageStatsManager;
+
+public class ForegroundEventCursor {
+    public interface IntervalListener {
+        // packageName was in the foreground from startTs until endTs; called on the polling thread
+        void onForegroundInterval(String packageName, long startTs, long endTs);
+    }
+
+    // Lookback used only until the cursor has seen its first event
+    private static final long PRIME_LOOKBACK_MS = 60 * 1000;
+
+    private final UsageStatsManager usageStatsManager;
+    // Reused for every event to avoid allocating per getNextEvent() call
+    private final UsageEvents.Event event = new UsageEvents.Event();
+
+    private long highWaterTs = 0L;
+    // Where the next query starts: highWaterTs once an event was seen, else the last poll time
+    private long queryStartTs = 0L;
+    private boolean primed = false;
+    private String foregroundPackage = null;
+    private long foregroundSinceTs = 0L;
+    private int lastEventsScanned = 0;
+    private IntervalListener intervalListener;
+    private EventListener eventListener;
+
+    public ForegroundEventCursor(UsageStatsManager usageStatsManager) {
+        this.usageStatsManager = usageStatsManager;
+    }
+
+    public interface EventListener {
+        // A new event, in time order; events replayed at the high-water mark are not repeated
+        void onUsageEvent(int type, String packageName, long ts);
+
+        // Every event before until has been delivered
+        void onEventsRead(long until);
+    }
+
+    public void setIntervalListener(IntervalListener listener) {
+        this.intervalListener = listener;
+    }
+
+    public void setEventListener(EventListener listener) {
+        this.eventListener = listener;
+    }
+
+    /**
+     * Advances the cursor to {@code now} and returns the package currently in the
+     * foreground, or null if nothing is resumed (e.g. the last app was paused and
+     * no other app has come forward yet).
+     */
+    public String poll(long now) {
+        if (primed && now < highWaterTs) {
+            // Wall clock moved backwards; start over rather than miss events
+            reset();
+        }
+
+        long startTime = primed ? queryStartTs : now - PRIME_LOOKBACK_MS;
+        UsageEvents events = usageStatsManager.queryEvents(startTime, now);
+        primed = true;
+
+        int scanned = 0;
+        long previousHighWaterTs = highWaterTs;
+        while (events != null && events.hasNextEvent()) {
+            events.getNextEvent(event);
+            scanned++;
+            long ts = event.getTimeStamp();
+            if (ts < highWaterTs) {
+                continue;
+            }
+            highWaterTs = ts;
+            apply(event.getEventType(), event.getPackageName(), ts);
+            if (eventListener != null && ts > previousHighWaterTs) {
+                eventListener.onUsageEvent(event.getEventType(), event.getPackageName(), ts);
+            }
+        }
+        lastEventsScanned = scanned;
+        // Replay from the last event (same-timestamp events may still arrive), or skip the
+        // empty stretch entirely if nothing has been seen yet
+        queryStartTs = highWaterTs > 0L ? highWaterTs : now;
+        if (eventListener != null) {
+            eventListener.onEventsRead(now);
+        }
+        return foregroundPackage;
+    }
+
+    private void apply(int type, String packageName, long ts) {
+        switch (type) {
+            case UsageEvents.Event.MOVE_TO_FOREGROUND: // same value as ACTIVITY_RESUMED
+                if (!packageName.equals(foregroundPackage)) {
+                    emitInterval(ts);
+                    foregroundPackage = packageName;
+                    foregroundSinceTs = ts;
+                }
+                break;
+            case UsageEvents.Event.MOVE_TO_BACKGROUND: // same value as ACTIVITY_PAUSED
+                // Only the package we consider foreground can leave it; a late pause
+                // from the previous app must not clear the app that replaced it
+                if (packageName.equals(foregroundPackage)) {
+                    emitInterval(ts);
+                    foregroundPackage = null;
+                    foregroundSinceTs = ts;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Closes the interval of the package leaving the foreground at endTs
+    private void emitInterval(long endTs) {
+        if (intervalListener != null && foregroundPackage != null && endTs > foregroundSinceTs) {
+            intervalListener.onForegroundInterval(foregroundPackage, foregroundSinceTs, endTs);
+        }
+    }
+
+    public void reset() {
+        highWaterTs = 0L;
+        queryStartTs = 0L;
+        primed = false;
+        foregroundPackage = null;
+        foregroundSinceTs = 0L;
+        lastEventsScanned = 0;
+    }
+
+    // True once at least one event has established the foreground state
+    public boolean hasForegroundState() {
+        return highWaterTs > 0L;
+    }
+
+    public String getForegroundPackage() {
+        return foregroundPackage;
+    }
+
+    public long getForegroundSinceTs() {
+        return foregroundSinceTs;
+    }
+
+    public long getHighWaterTs() {
+        return highWaterTs;
+    }
+
+    public int getLastEventsScanned() {
+        return lastEventsScanned;
+    }
+}
@@ -0,0 +1,199 @@
+package com.doomscrollstopper;
+
+/*
+ * InstalledAppsIndex
+ * -------------------
+ * In-memory list of user-installed (non-system) apps with their labels, sorted by name.
+ * Responsibilities:
+ *  - Build once on a background thread (started with the engine), without GET_META_DATA
+ *  - Stay current from PackageChangeHub: one entry is re-read per added/updated package,
+ *    removed packages are dropped, a locale change relabels everything
+ *  - Serve pages sorted by name or by recent usage without touching PackageManager
+ *
+ * Notes:
+ *  - Readers get an immutable snapshot through a volatile reference; updates build a new
+ *    list and swap it in (a few hundred entries, so copying is cheap).
+ *  - Every change bumps `version`, so JS can tell whether pages it holds are still current.
+ *  - awaitSnapshot() blocks until the first build finishes (null if it is still running after
+ *    the timeout); call it off the UI/bridge thread.
+ */
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class InstalledAppsIndex implements PackageChangeHub.Listener {
+    private static final String TAG = "InstalledAppsIndex";
+
+    public static final String SORT_NAME = "name";
+    public static final String SORT_USAGE = "usage";
+
+    public static final class Entry {
+        public final String packageName;
+        public final String appName;
+        final String sortKey;
+
+        Entry(String packageName, String appName) {
+            this.packageName = packageName;
+            this.appName = appName;
+            this.sortKey = appName.toLowerCase(Locale.getDefault());
+        }
+    }
+
+    public static final class Page {
+        public final List<Entry> apps;
+        public final int total;
+        public final int offset;
+        public final long version;
+
+        Page(List<Entry> apps, int total, int offset, long version) {
+            this.apps = apps;
+            this.total = total;
+            this.offset = offset;
+            this.version = version;
+        }
+    }
+
+    private static final Comparator<Entry> BY_NAME = (a, b) -> {
+        int byKey = a.sortKey.compareTo(b.sortKey);
+        return byKey != 0 ? byKey : a.packageName.compareTo(b.packageName);
+    };
+
+    private final PackageManager packageManager;
+    private final AppLabelCache labelCache;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final CountDownLatch built = new CountDownLatch(1);
+
+    // Sorted by name; replaced wholesale, never mutated
+    private volatile List<Entry> snapshot = Collections.emptyList();
+    private volatile long version = 0L;
+
+    public InstalledAppsIndex(Context context, AppLabelCache labelCache, PackageChangeHub packageChanges) {
+        this.packageManager = context.getPackageManager();
+        this.labelCache = labelCache;
+        this.thread = new HandlerThread("InstalledAppsIndex", Process.THREAD_PRIORITY_BACKGROUND);
+        this.thread.start();
+        this.handler = new Handler(thread.getLooper());
+        packageChanges.addListener(this);
+        handler.post(this::rebuild);
+    }
+
+    // Index thread only
+    private void rebuild() {
+        long start = SystemClock.uptimeMillis();
+        try {
+            List<ApplicationInfo> packages = packageManager.getInstalledApplications(0);
+            List<Entry> entries = new ArrayList<>();
+            for (ApplicationInfo appInfo : packages) {
+                if (isUserApp(appInfo)) {
+                    entries.add(new Entry(appInfo.packageName, labelCache.getLabel(appInfo)));
+                }
+            }
+            publish(entries);
+            Log.d(TAG, "[BUILD] " + entries.size() + " apps in " + (SystemClock.uptimeMillis() - start) + "ms");
+        } catch (Exception e) {
+            Log.e(TAG, "Error building installed apps index", e);
+        } finally {
+            built.countDown();
+        }
+    }
+
+    // Index thread only: re-reads one package, or drops it if it is gone
+    private void refresh(String packageName) {
+        List<Entry> entries = new ArrayList<>(snapshot.size() + 1);
+        for (Entry entry : snapshot) {
+            if (!entry.packageName.equals(packageName)) {
+                entries.add(entry);
+            }
+        }
+        try {
+            ApplicationInfo appInfo = packageManager.getApplicationInfo(packageName, 0);
+            if (isUserApp(appInfo)) {
+                entries.add(new Entry(packageName, labelCache.getLabel(appInfo)));
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            // Uninstalled: leave it out
+        }
+        publish(entries);
+    }
+
+    private static boolean isUserApp(ApplicationInfo appInfo) {
+        return (appInfo.flags & ApplicationInfo.FLAG_SYSTEM) == 0;
+    }
+
+    private void publish(List<Entry> entries) {
+        Collections.sort(entries, BY_NAME);
+        snapshot = Collections.unmodifiableList(entries);
+        version++;
+    }
+
+    @Override
+    public void onPackageChanged(String action, String packageName, boolean replacing) {
+        if (Intent.ACTION_PACKAGE_REMOVED.equals(action) && replacing) {
+            return; // an update; ADDED/REPLACED follow
+        }
+        handler.post(() -> {
+            if (built.getCount() == 0) {
+                refresh(packageName);
+            }
+        });
+    }
+
+    @Override
+    public void onLocaleChanged() {
+        handler.post(this::rebuild);
+    }
+
+    // Current snapshot, waiting up to timeoutMs for the first build; null if it has not finished
+    public List<Entry> awaitSnapshot(long timeoutMs) throws InterruptedException {
+        if (!built.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * One page of the index. For SORT_USAGE, usageByPackage (package -> ms) orders apps by
+     * descending usage, ties and unused apps by name. Null if the first build has not finished.
+     */
+    public Page getPage(int offset, int limit, String sortBy, Map<String, Long> usageByPackage,
+                        long timeoutMs) throws InterruptedException {
+        List<Entry> entries = awaitSnapshot(timeoutMs);
+        if (entries == null) {
+            return null;
+        }
+        long pageVersion = version;
+        if (SORT_USAGE.equals(sortBy) && usageByPackage != null) {
+            entries = new ArrayList<>(entries);
+            Collections.sort(entries, (a, b) -> {
+                Long usageA = usageByPackage.get(a.packageName);
+                Long usageB = usageByPackage.get(b.packageName);
+                int byUsage = Long.compare(usageB != null ? usageB : 0L, usageA != null ? usageA : 0L);
+                return byUsage != 0 ? byUsage : BY_NAME.compare(a, b);
+            });
+        }
+        int from = Math.max(0, Math.min(offset, entries.size()));
+        int to = limit > 0 ? Math.min(entries.size(), from + limit) : entries.size();
+        return new Page(entries.subList(from, to), entries.size(), from, pageVersion);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
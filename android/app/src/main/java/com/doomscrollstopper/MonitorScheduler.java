@@ -0,0 +1,144 @@
+package com.doomscrollstopper;
+
+/*
+ * MonitorScheduler
+ * -----------------
+ * Decides when AppUsageMonitor's detection loop should wake up next.
+ * States:
+ *  - FAST:          a few quick polls right after an app switch
+ *  - BACKOFF:       same non-blocked app in front; interval doubles up to a cap
+ *  - DEADLINE:      a second-popup/cooldown deadline is sooner than the backoff; wake exactly then
+ *  - SCREEN_OFF:    nothing can be opened; loop is parked until the screen turns on
+ *  - NO_BLOCKLIST:  nothing can be blocked; loop is parked until apps are blocked again
+ *  - BLOCKED_APP:   a blocked app is in front; steady polls at the base interval, no backoff
+ *
+ * Notes:
+ *  - Pure decision logic with no Android dependencies; the monitor owns the Handler.
+ *  - Every state change is reported to the StateListener together with the wakeup
+ *    count so a trace of a busy day shows how often the loop actually ran.
+ *  - While polling is the only way to notice a switch the cap equals the base interval,
+ *    so detection is never slower than the old fixed 1s loop; backoff only pays off
+ *    while AppDetectionService pushes window changes.
+ *  - Counters and state are written on the detection thread and volatile, so getStats()
+ *    can be called from the bridge.
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class MonitorScheduler {
+    // Ordinals are recorded in traces; append new states at the end
+    public enum State { FAST, BACKOFF, DEADLINE, SCREEN_OFF, NO_BLOCKLIST, BLOCKED_APP }
+
+    public interface StateListener {
+        void onStateChanged(State from, State to, long wakeups);
+    }
+
+    public static final long STOPPED = -1L;
+
+    private static final long FAST_INTERVAL_MS = 500;
+    private static final int FAST_TICKS = 4;
+    private static final long BACKOFF_BASE_MS = 1000;
+    private static final long BACKOFF_MAX_MS = BACKOFF_BASE_MS; // poller is the only switch detector
+    private static final long BACKOFF_MAX_WITH_EVENTS_MS = 60000; // switches arrive from AppDetectionService
+    private static final long MIN_DEADLINE_DELAY_MS = 100; // never spin on a deadline that is already due
+
+    private volatile State state = State.FAST;
+    private int fastTicksLeft = FAST_TICKS;
+    private long backoffMs = BACKOFF_BASE_MS;
+    private volatile long lastDelayMs = 0L;
+    private volatile long wakeups = 0L;
+    private volatile long transitions = 0L;
+    private StateListener listener;
+
+    public void setListener(StateListener listener) {
+        this.listener = listener;
+    }
+
+    // Counts one run of the detection loop
+    public void onWakeup() {
+        wakeups++;
+    }
+
+    // The foreground app changed: poll quickly for a moment, then back off again
+    public void onAppSwitched() {
+        fastTicksLeft = FAST_TICKS;
+        backoffMs = BACKOFF_BASE_MS;
+    }
+
+    /**
+     * Returns the delay until the next wakeup, or {@link #STOPPED} if the loop should
+     * park until {@link #onAppSwitched()} or an external wake restarts it.
+     *
+     * @param foregroundBlocked a blocked app is in front (no backoff while it is)
+     * @param deadlineAt wall-clock time a pending popup decision comes due, or 0 if none
+     */
+    public long nextDelay(boolean screenOn, boolean hasBlocklist, boolean eventSourceConnected,
+                          boolean foregroundBlocked, long deadlineAt, long now) {
+        if (!screenOn) {
+            return park(State.SCREEN_OFF);
+        }
+        if (!hasBlocklist) {
+            return park(State.NO_BLOCKLIST);
+        }
+
+        State next;
+        long delay;
+        if (fastTicksLeft > 0 && !eventSourceConnected) {
+            fastTicksLeft--;
+            next = State.FAST;
+            delay = FAST_INTERVAL_MS;
+        } else if (foregroundBlocked) {
+            next = State.BLOCKED_APP;
+            delay = BACKOFF_BASE_MS;
+            backoffMs = BACKOFF_BASE_MS;
+        } else {
+            long cap = eventSourceConnected ? BACKOFF_MAX_WITH_EVENTS_MS : BACKOFF_MAX_MS;
+            next = State.BACKOFF;
+            delay = Math.min(backoffMs, cap);
+            backoffMs = Math.min(backoffMs * 2, cap);
+        }
+
+        if (deadlineAt > 0 && deadlineAt - now <= delay) {
+            next = State.DEADLINE;
+            delay = Math.max(MIN_DEADLINE_DELAY_MS, deadlineAt - now);
+        }
+
+        setState(next);
+        lastDelayMs = delay;
+        return delay;
+    }
+
+    private long park(State parked) {
+        setState(parked);
+        // Resume with quick polls once woken; whatever is in front is new to us
+        onAppSwitched();
+        lastDelayMs = STOPPED;
+        return STOPPED;
+    }
+
+    private void setState(State next) {
+        if (next == state) {
+            return;
+        }
+        State previous = state;
+        state = next;
+        transitions++;
+        if (listener != null) {
+            listener.onStateChanged(previous, next, wakeups);
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("state", state.name());
+        stats.put("wakeups", wakeups);
+        stats.put("transitions", transitions);
+        stats.put("lastDelayMs", lastDelayMs);
+        return stats;
+    }
+}
@@ -18,7 +18,9 @@ import androidx.core.app.NotificationCompat;
 import android.accessibilityservice.AccessibilityService;
 import android.view.accessibility.AccessibilityEvent;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.net.InetSocketAddress;
 
 import java.io.FileInputStream;
@@ -67,16 +69,10 @@ public class MyVpnService extends VpnService {
         Notification notification = createNotification("VPN Active");
         startForeground(NOTIFICATION_ID, notification);
 
-        Log.d(TAG, "[CREATE] Initializing AppUsageMonitor");
+        Log.d(TAG, "[CREATE] Attaching to shared AppUsageMonitor");
 
-        monitor = new AppUsageMonitor(this);
-        // Restore blocked apps
-        Set<String> savedBlockedApps = loadBlockedApps();
-        Log.d(TAG, "[CREATE] Loaded savedBlockedApps size=" + (savedBlockedApps != null ? savedBlockedApps.size() : 0));
-        if (savedBlockedApps != null) {
-            monitor.setBlockedApps(savedBlockedApps);
-            Log.d(TAG, "[CREATE] Applied blocked apps to monitor");
-        }
+        // Shared engine; it loads the persisted blocklist and settings on its own thread
+        monitor = AppUsageMonitor.getInstance(this);
 
         /*
          * MyVpnService
@@ -88,20 +84,9 @@ public class MyVpnService extends VpnService {
          *
          * Key Points:
          *  - Creates notification channel and runs as foreground service.
-         *  - Owns lifecycle of AppUsageMonitor and blocked apps persistence.
-         *  - Listener hooks are available for future event routing.
+         *  - Starts/stops the shared AppUsageMonitor engine; settings reach the engine
+         *    directly from VPNModule, not through this service.
          */
-        // Set up listener as before
-        monitor.setListener(new AppUsageMonitor.AppDetectionListener() {
-            @Override
-            public void onAppDetected(String packageName, String appName) { 
-                /* Intentionally left light */ 
-            }
-            @Override
-            public void onBlockedAppOpened(String packageName, String appName) { 
-                /* Intentionally left light */ 
-            }
-        });
     }
     // Start the VPN service
     @Override
@@ -109,7 +94,22 @@ public class MyVpnService extends VpnService {
 
         Log.d(TAG, "[CMD] onStartCommand intent=" + intent);
 
-        if (intent != null){
+        if (intent == null) {
+            // Restarted by START_STICKY after the process died: decide once the engine has
+            // reloaded the configuration from SettingsStore (off the main thread)
+            if (monitor == null) {
+                monitor = AppUsageMonitor.getInstance(this);
+            }
+            monitor.whenStoresOpen(() -> {
+                if (monitor.isMonitoringEnabled()) {
+                    Log.d(TAG, "[CMD] sticky restart, resuming monitoring");
+                    startMonitoring();
+                } else {
+                    stopForeground(true);
+                    stopSelf();
+                }
+            });
+        } else {
             String action = intent.getAction();
             Log.d(TAG, "[CMD] action=" + action);
 
@@ -126,33 +126,6 @@ public class MyVpnService extends VpnService {
                     stopForeground(true);
                     stopSelf();
                     break;
-                case "UPDATE_BLOCKED_APPS":
-                    Set<String> blocked = new HashSet<>(intent.getStringArrayListExtra("blockedApps"));
-                    Log.d(TAG, "[CMD] UPDATE_BLOCKED_APPS size=" + blocked.size() + " apps=" + blocked.toString());
-                    if (monitor != null) monitor.setBlockedApps(blocked);
-                    saveBlockedApps(blocked);
-                    break;
-                case "SET_DELAY_MESSAGE":
-                    String message = intent.getStringExtra("message");
-                    Log.d(TAG, "[CMD] SET_DELAY_MESSAGE message=" + message);
-                    if (monitor != null && message != null) {
-                        monitor.setDelayMessage(message);
-                    }
-                    break;
-                case "SET_DELAY_TIME":
-                    int seconds = intent.getIntExtra("seconds", 15);
-                    Log.d(TAG, "[CMD] SET_DELAY_TIME seconds=" + seconds);
-                    if (monitor != null) {
-                        monitor.setDelayTime(seconds);
-                    }
-                    break;
-                case "SET_POPUP_DELAY":
-                    int minutes = intent.getIntExtra("minutes", 10);
-                    Log.d(TAG, "[CMD] SET_POPUP_DELAY minutes=" + minutes);
-                    if (monitor != null) {
-                        monitor.setPopupDelayMinutes(minutes);
-                    }
-                    break;
                 default:
                     Log.w(TAG, "[CMD] Unknown action: " + action);
             }
@@ -166,22 +139,16 @@ public class MyVpnService extends VpnService {
     // Start monitoring
     private void startMonitoring() {
         if (monitor == null) {
-            monitor = new AppUsageMonitor(this);
-            // Load and set blocked apps
-            Set<String> savedBlockedApps = loadBlockedApps();
-            if (savedBlockedApps != null && !savedBlockedApps.isEmpty()) {
-                monitor.setBlockedApps(savedBlockedApps);
-            }
+            monitor = AppUsageMonitor.getInstance(this);
         }
         monitor.startMonitoring();
-        Log.d(TAG, "Monitoring started with " + (monitor.getBlockedApps() != null ? monitor.getBlockedApps().size() : 0) + " blocked apps");
+        Log.d(TAG, "Monitoring started");
     }
 
-    // Stop monitoring
+    // Stop monitoring (the engine itself lives on for the bridge's stats calls)
     private void stopMonitoring() {
         if (monitor != null) {
             monitor.stopMonitoring();
-            monitor = null;
         }
     }
 
@@ -321,28 +288,28 @@ public class MyVpnService extends VpnService {
 
     public void updateBlockedApps(Set<String> blockedApps) {
         if (monitor != null) {
-            monitor.setBlockedApps(blockedApps);
+            monitor.saveBlockedApps(blockedApps);
         }
     }
-
-    private void saveBlockedApps(Set<String> blockedApps) {
-        getSharedPreferences("doomscroll_prefs", Context.MODE_PRIVATE)
-            .edit()
-            .putStringSet("blocked_apps", blockedApps)
-            .apply();
-        Log.d(TAG, "[PREF] saveBlockedApps size=" + (blockedApps != null ? blockedApps.size() : 0) + " data=" + blockedApps);
-    }
-    
-    private Set<String> loadBlockedApps() {
-        Set<String> set = getSharedPreferences("doomscroll_prefs", Context.MODE_PRIVATE)
-            .getStringSet("blocked_apps", new HashSet<>());
-        Log.d(TAG, "[PREF] loadBlockedApps size=" + (set != null ? set.size() : 0) + " data=" + set);
-        return set;
-    }
     
     
     @Override
     public IBinder onBind(Intent intent) {
         return null;
     }
+
+    // adb shell dumpsys activity service com.doomscrollstopper/.MyVpnService [trace on|off]
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args != null && args.length >= 2 && "trace".equals(args[0])) {
+            TraceBuffer.setEnabled("on".equals(args[1]));
+            writer.println("tracing " + (TraceBuffer.isEnabled() ? "enabled" : "disabled"));
+            return;
+        }
+        if (!TraceBuffer.isEnabled()) {
+            writer.println("tracing is off; enable with: dumpsys activity service "
+                    + getPackageName() + "/.MyVpnService trace on");
+        }
+        TraceBuffer.dump(writer);
+    }
 }
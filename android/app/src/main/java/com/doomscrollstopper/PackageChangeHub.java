@@ -0,0 +1,83 @@
+package com.doomscrollstopper;
+
+/*
+ * PackageChangeHub
+ * -----------------
+ * One receiver for package add/replace/remove and locale broadcasts, fanned out to the
+ * caches that depend on installed packages (AppLabelCache, InstalledAppsIndex, ...).
+ *
+ * Notes:
+ *  - Listeners run on the main thread in registration order; a cache that others read
+ *    from (labels) should register first. Listeners must hand heavy work to their own thread.
+ *  - A package update arrives as REMOVED(replacing) + ADDED(replacing) + REPLACED;
+ *    `replacing` lets listeners ignore the transient removal.
+ */
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class PackageChangeHub {
+    private static final String TAG = "PackageChangeHub";
+
+    public interface Listener {
+        // action is one of Intent.ACTION_PACKAGE_ADDED / _REPLACED / _REMOVED
+        void onPackageChanged(String action, String packageName, boolean replacing);
+
+        void onLocaleChanged();
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public PackageChangeHub(Context context) {
+        BroadcastReceiver packageReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context ctx, Intent intent) {
+                Uri data = intent.getData();
+                String packageName = data != null ? data.getSchemeSpecificPart() : null;
+                if (packageName == null) {
+                    return;
+                }
+                boolean replacing = intent.getBooleanExtra(Intent.EXTRA_REPLACING, false);
+                Log.d(TAG, "[PACKAGE] " + intent.getAction() + " " + packageName + (replacing ? " (replacing)" : ""));
+                for (Listener listener : listeners) {
+                    listener.onPackageChanged(intent.getAction(), packageName, replacing);
+                }
+            }
+        };
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addDataScheme("package");
+        ContextCompat.registerReceiver(context, packageReceiver, packageFilter, ContextCompat.RECEIVER_NOT_EXPORTED);
+
+        BroadcastReceiver localeReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context ctx, Intent intent) {
+                Log.d(TAG, "[LOCALE] changed");
+                for (Listener listener : listeners) {
+                    listener.onLocaleChanged();
+                }
+            }
+        };
+        ContextCompat.registerReceiver(context, localeReceiver, new IntentFilter(Intent.ACTION_LOCALE_CHANGED),
+                ContextCompat.RECEIVER_NOT_EXPORTED);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+}
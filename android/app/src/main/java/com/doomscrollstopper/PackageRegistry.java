@@ -0,0 +1,72 @@
+package com.doomscrollstopper;
+
+/*
+ * PackageRegistry
+ * ----------------
+ * Assigns every package name the engine sees a small, stable integer ID (0, 1, 2, ...)
+ * for the lifetime of the process.
+ * Responsibilities:
+ *  - intern(): one hash lookup per package per tick; per-app state (blocked, allowed,
+ *    cooldown, session timestamps) is then indexed by the ID instead of re-hashing the string
+ *  - nameOf(): map an ID back to its package for logging, traces and persistence
+ *
+ * Notes:
+ *  - IDs are never reused or released; the set of packages on a device is small and bounded.
+ *  - Lookups are lock-free (ConcurrentHashMap); only the first sighting of a package takes the lock.
+ *  - IDs are process-local and must not be written to disk; persist package names instead.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class PackageRegistry {
+    public static final int NO_ID = -1;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Object assignLock = new Object();
+    private String[] names = new String[64];
+    // Published after names[id] is written, so readers that check it see the name
+    private volatile int count = 0;
+
+    // Returns the ID for packageName, assigning the next free one on first sight
+    public int intern(String packageName) {
+        Integer id = ids.get(packageName);
+        if (id != null) {
+            return id;
+        }
+        synchronized (assignLock) {
+            id = ids.get(packageName);
+            if (id != null) {
+                return id;
+            }
+            int next = count;
+            if (next == names.length) {
+                names = Arrays.copyOf(names, next * 2);
+            }
+            names[next] = packageName;
+            count = next + 1;
+            ids.put(packageName, next);
+            return next;
+        }
+    }
+
+    // ID if the package was interned before, else NO_ID; never assigns
+    public int idOf(String packageName) {
+        Integer id = ids.get(packageName);
+        return id != null ? id : NO_ID;
+    }
+
+    public String nameOf(int id) {
+        if (id < 0 || id >= count) {
+            return null;
+        }
+        synchronized (assignLock) {
+            return names[id];
+        }
+    }
+
+    // Number of IDs handed out so far; valid IDs are 0 .. size() - 1
+    public int size() {
+        return count;
+    }
+}
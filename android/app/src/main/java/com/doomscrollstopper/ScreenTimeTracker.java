@@ -3,58 +3,34 @@ package com.doomscrollstopper;
 /*
  * ScreenTimeTracker
  * ------------------
- * Aggregates device-wide foreground time using UsageStatsManager.
- * Exposes a single API returning total 24h screen time (in minutes) + range.
+ * Reports device-wide foreground time for today.
+ * Exposes a single API returning today's screen time (in minutes) + range,
+ * where today starts at local midnight.
  *
  * Implementation details:
- *  - Uses INTERVAL_DAILY and sums all app foreground times.
+ *  - Reads the engine's DailyScreenTimeCounter, which the service keeps current;
+ *    no usage query per call.
  *  - Converts milliseconds to minutes for more user-friendly display.
- *  - Requires API 22 (LOLLIPOP_MR1) for queryUsageStats behavior.
  */
 
-import android.app.usage.UsageStats;
-import android.app.usage.UsageStatsManager;
-import android.content.Context;
-import android.os.Build;
-import androidx.annotation.RequiresApi;
-
-import java.util.Calendar;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 public class ScreenTimeTracker {
-    private Context context;
+    private final DailyScreenTimeCounter dailyCounter;
     
-    public ScreenTimeTracker(Context context) {
-        this.context = context;
+    public ScreenTimeTracker(DailyScreenTimeCounter dailyCounter) {
+        this.dailyCounter = dailyCounter;
     }
     
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP_MR1)
     public Map<String, Long> getScreenTimeStats() {
         Map<String, Long> result = new HashMap<>();
         try {
-            UsageStatsManager usageStatsManager = (UsageStatsManager) context.getSystemService(Context.USAGE_STATS_SERVICE);
-            
-            // Get calendar for time range (last 24 hours)
-            Calendar calendar = Calendar.getInstance();
-            long endTime = calendar.getTimeInMillis();
-            calendar.add(Calendar.DAY_OF_YEAR, -1);
-            long startTime = calendar.getTimeInMillis();
-            
-            // Get usage stats
-            List<UsageStats> stats = usageStatsManager.queryUsageStats(
-                UsageStatsManager.INTERVAL_DAILY, 
-                startTime, 
-                endTime
-            );
-            
-            // Calculate total screen time
-            long totalScreenTime = 0;
-            for (UsageStats usageStats : stats) {
-                totalScreenTime += usageStats.getTotalTimeInForeground();
-            }
+            // Time range: local midnight until now
+            long endTime = System.currentTimeMillis();
+            long totalScreenTime = dailyCounter.getTodayTotal();
+            long startTime = dailyCounter.getDayStart();
             
             // Convert to minutes
             totalScreenTime = TimeUnit.MILLISECONDS.toMinutes(totalScreenTime);
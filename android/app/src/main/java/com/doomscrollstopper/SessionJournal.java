@@ -0,0 +1,296 @@
+package com.doomscrollstopper;
+
+/*
+ * SessionJournal
+ * ---------------
+ * Memory-mapped copy of the SessionTable (open time, first popup time, cooldown, allowed)
+ * plus the foreground app it belongs to, so a START_STICKY restart after the OS killed the
+ * service continues the user's session instead of starting the popup timers over.
+ *
+ * File layout (filesDir/session.journal, big-endian, one MappedByteBuffer over the file):
+ *  - header (32 bytes): int magic | int formatVersion | int slotCount | int foregroundSlot
+ *                       | long reserved | int reserved | int crc32 of the bytes before it
+ *  - slotCount fixed 320-byte slots, one per package that ever had session state; each
+ *    slot holds two 160-byte copies, written alternately:
+ *      int crc32 | int seq | long openTs | long firstPopupTs | long cooldownTs
+ *      | byte flags (bit 0 = allowed) | byte nameLength | UTF-8 package name (<= 126 bytes)
+ *    the crc covers seq .. the end of the name.
+ *
+ * Notes:
+ *  - A state change rewrites the older copy of one slot: ~34 bytes plus the name, one
+ *    CRC32, no allocation and no syscalls. Replay keeps the valid copy with the higher
+ *    seq, so a write torn by a kill loses at most that change, never the slot.
+ *  - Dirty pages belong to the kernel once written, so they survive the process being
+ *    killed; nothing is forced to disk per change (a power loss may lose recent changes).
+ *  - replay() reads the whole file (a few KB) once; no usage history is consulted.
+ *  - Slots are keyed by package name on disk and by PackageRegistry ID in memory.
+ *    They are never freed; only packages that had state get one (in practice, blocked apps).
+ *  - Confined to the detection thread, like the SessionTable it mirrors. Errors disable
+ *    the journal (sessions then live in memory only, as before) rather than the monitor.
+ */
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+public class SessionJournal {
+    private static final String TAG = "SessionJournal";
+    private static final int MAGIC = 0x53455353; // "SESS"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int COPY_BYTES = 160;
+    private static final int SLOT_BYTES = 2 * COPY_BYTES;
+    private static final int COPY_FIXED_BYTES = 4 + 4 + 8 + 8 + 8 + 1 + 1;
+    private static final int MAX_NAME_BYTES = COPY_BYTES - COPY_FIXED_BYTES;
+    private static final int INITIAL_SLOTS = 32;
+    private static final int NO_SLOT = -1;
+
+    // Restored state of one package, handed to the caller by replay()
+    public interface Visitor {
+        void onSession(String packageName, long openTs, long firstPopupTs, long cooldownTs, boolean allowed);
+    }
+
+    private final File file;
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private int slotCount;
+    private int usedSlots;
+    // PackageRegistry ID -> slot, and per-slot copy sequence numbers (mirror of the file)
+    private int[] slotOfId = new int[64];
+    private int[] seqOfSlot = new int[0];
+    private byte[][] nameOfSlot = new byte[0][];
+    private int foregroundSlot = NO_SLOT;
+    private final byte[] scratch = new byte[COPY_BYTES];
+    private final CRC32 crc = new CRC32();
+    private boolean enabled = true;
+    // Written on the detection thread, read for stats
+    private volatile long writes = 0L;
+
+    public SessionJournal(File filesDir) {
+        this.file = new File(filesDir, "session.journal");
+        Arrays.fill(slotOfId, NO_SLOT);
+    }
+
+    /**
+     * Opens (or creates) the journal and reports every stored session to visitor; returns the
+     * package that was in the foreground, or null. IDs for the restored packages are interned
+     * in registry so later writes land in the same slots.
+     */
+    public String replay(PackageRegistry registry, Visitor visitor) {
+        try {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            long size = channel.size();
+            if (size < HEADER_BYTES || !readHeader(size)) {
+                if (size > 0) {
+                    Log.w(TAG, "[REPLAY] unreadable journal (" + size + " bytes), starting empty");
+                }
+                // Start over at the initial size; leftovers would fail the size check forever
+                map = null;
+                channel.truncate(0);
+                foregroundSlot = NO_SLOT;
+                remap(INITIAL_SLOTS);
+                return null;
+            }
+            String foreground = null;
+            for (int slot = 0; slot < slotCount; slot++) {
+                int copy = newestCopy(slot);
+                if (copy < 0) {
+                    continue;
+                }
+                int at = copyOffset(slot, copy);
+                byte[] nameBytes = new byte[map.get(at + 33) & 0xff];
+                map.position(at + COPY_FIXED_BYTES);
+                map.get(nameBytes);
+                String name = new String(nameBytes, StandardCharsets.UTF_8);
+                nameOfSlot[slot] = nameBytes;
+                bindSlot(registry.intern(name), slot);
+                seqOfSlot[slot] = map.getInt(at + 4);
+                usedSlots = Math.max(usedSlots, slot + 1);
+                long openTs = map.getLong(at + 8);
+                long firstPopupTs = map.getLong(at + 16);
+                long cooldownTs = map.getLong(at + 24);
+                boolean allowed = (map.get(at + 32) & 1) != 0;
+                if (openTs != 0L || firstPopupTs != 0L || cooldownTs != 0L || allowed) {
+                    visitor.onSession(name, openTs, firstPopupTs, cooldownTs, allowed);
+                }
+                if (slot == foregroundSlot) {
+                    foreground = name;
+                }
+            }
+            if (foreground == null) {
+                foregroundSlot = NO_SLOT;
+            }
+            Log.d(TAG, "[REPLAY] " + usedSlots + " slots, foreground=" + foreground);
+            return foreground;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "[REPLAY] failed, session state will not be persisted", e);
+            enabled = false;
+            return null;
+        }
+    }
+
+    // Stores id's current row; one slot copy rewritten in place
+    public void write(int id, String packageName, long openTs, long firstPopupTs, long cooldownTs,
+            boolean allowed) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            int slot = slotFor(id, packageName);
+            if (slot == NO_SLOT) {
+                return;
+            }
+            int seq = seqOfSlot[slot] + 1;
+            seqOfSlot[slot] = seq;
+            int at = copyOffset(slot, seq & 1);
+            byte[] name = nameOfSlot[slot];
+            // Payload first, crc last: a copy torn by a kill fails its check on replay
+            map.putInt(at + 4, seq);
+            map.putLong(at + 8, openTs);
+            map.putLong(at + 16, firstPopupTs);
+            map.putLong(at + 24, cooldownTs);
+            map.put(at + 32, (byte) (allowed ? 1 : 0));
+            map.put(at + 33, (byte) name.length);
+            map.position(at + COPY_FIXED_BYTES);
+            map.put(name);
+            map.putInt(at, copyCrc(at, name.length));
+            writes++;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "[WRITE] failed for " + packageName + ", journal disabled", e);
+            enabled = false;
+        }
+    }
+
+    // Records which package the session timeline belongs to (NO_ID: none)
+    public void setForeground(int id) {
+        if (!enabled) {
+            return;
+        }
+        int slot = id >= 0 && id < slotOfId.length ? slotOfId[id] : NO_SLOT;
+        if (slot == foregroundSlot) {
+            return;
+        }
+        foregroundSlot = slot;
+        writeHeader();
+    }
+
+    public long getWrites() {
+        return writes;
+    }
+
+    private boolean readHeader(long size) throws IOException {
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (map.getInt(0) != MAGIC || map.getInt(4) != FORMAT_VERSION
+                || map.getInt(HEADER_BYTES - 4) != headerCrc()) {
+            return false;
+        }
+        int slots = map.getInt(8);
+        if (slots <= 0 || HEADER_BYTES + (long) slots * SLOT_BYTES != size) {
+            return false;
+        }
+        slotCount = slots;
+        seqOfSlot = new int[slots];
+        nameOfSlot = new byte[slots][];
+        foregroundSlot = map.getInt(12);
+        return true;
+    }
+
+    private void writeHeader() {
+        map.putInt(0, MAGIC);
+        map.putInt(4, FORMAT_VERSION);
+        map.putInt(8, slotCount);
+        map.putInt(12, foregroundSlot);
+        map.putInt(HEADER_BYTES - 4, headerCrc());
+    }
+
+    private int headerCrc() {
+        for (int i = 0; i < HEADER_BYTES - 4; i++) {
+            scratch[i] = map.get(i);
+        }
+        crc.reset();
+        crc.update(scratch, 0, HEADER_BYTES - 4);
+        return (int) crc.getValue();
+    }
+
+    // Copy (0 or 1) of slot with a valid crc and the higher seq, else -1
+    private int newestCopy(int slot) {
+        int best = -1;
+        int bestSeq = 0;
+        for (int copy = 0; copy < 2; copy++) {
+            int at = copyOffset(slot, copy);
+            int nameLength = map.get(at + 33) & 0xff;
+            if (nameLength == 0 || nameLength > MAX_NAME_BYTES || map.getInt(at) != copyCrc(at, nameLength)) {
+                continue;
+            }
+            int seq = map.getInt(at + 4);
+            if (best < 0 || seq - bestSeq > 0) {
+                best = copy;
+                bestSeq = seq;
+            }
+        }
+        return best;
+    }
+
+    // crc32 of seq .. end of name for the copy at offset at
+    private int copyCrc(int at, int nameLength) {
+        int length = COPY_FIXED_BYTES + nameLength;
+        for (int i = 4; i < length; i++) {
+            scratch[i] = map.get(at + i);
+        }
+        crc.reset();
+        crc.update(scratch, 4, length - 4);
+        return (int) crc.getValue();
+    }
+
+    private int slotFor(int id, String packageName) throws IOException {
+        if (id < slotOfId.length && slotOfId[id] != NO_SLOT) {
+            return slotOfId[id];
+        }
+        byte[] name = packageName.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME_BYTES) {
+            Log.w(TAG, "[WRITE] package name too long to journal: " + packageName);
+            return NO_SLOT;
+        }
+        if (usedSlots == slotCount) {
+            remap(slotCount * 2);
+        }
+        int slot = usedSlots++;
+        nameOfSlot[slot] = name;
+        bindSlot(id, slot);
+        return slot;
+    }
+
+    private void bindSlot(int id, int slot) {
+        if (id >= slotOfId.length) {
+            int old = slotOfId.length;
+            slotOfId = Arrays.copyOf(slotOfId, Math.max(old * 2, id + 1));
+            Arrays.fill(slotOfId, old, slotOfId.length, NO_SLOT);
+        }
+        slotOfId[id] = slot;
+    }
+
+    // Grows the file to slots slots (new ones zeroed, so invalid) and maps all of it
+    private void remap(int slots) throws IOException {
+        long size = HEADER_BYTES + (long) slots * SLOT_BYTES;
+        if (map != null) {
+            map.force();
+        }
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        slotCount = slots;
+        seqOfSlot = Arrays.copyOf(seqOfSlot, slots);
+        nameOfSlot = Arrays.copyOf(nameOfSlot, slots);
+        writeHeader();
+        Log.d(TAG, "[GROW] " + slots + " slots");
+    }
+
+    private static int copyOffset(int slot, int copy) {
+        return HEADER_BYTES + slot * SLOT_BYTES + copy * COPY_BYTES;
+    }
+}
@@ -0,0 +1,171 @@
+package com.doomscrollstopper;
+
+/*
+ * SessionTable
+ * -------------
+ * Per-package popup session state for AppUsageMonitor, indexed by PackageRegistry ID.
+ * Replaces the separate open-time, first-popup, cooldown and allowed collections with
+ * one table of parallel primitive arrays.
+ * Columns:
+ *  - openTs:        when the blocked app was opened in this session (0 = not tracked)
+ *  - firstPopupTs:  when the first popup was shown (0 = not yet; drives the second popup)
+ *  - cooldownTs:    when Continue was pressed (0 = no cooldown)
+ *  - allowed:       user pressed Continue; suppresses the first popup until they switch away
+ *
+ * Notes:
+ *  - Confined to the detection thread, like the collections it replaces. No locks.
+ *  - Reads and writes never allocate; arrays grow by doubling only when a new ID
+ *    exceeds the current capacity, which stops happening once the installed apps were seen.
+ *  - Wall-clock 0 is used as "unset", so no boxing and no separate presence bits for
+ *    timestamps.
+ *  - snapshot() allocates and is meant for debugging only.
+ *  - With a SessionJournal attached, every change to a row is mirrored into its mapped
+ *    slot so the table can be rebuilt by restore() after the process is killed.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SessionTable {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] openTs = new long[INITIAL_CAPACITY];
+    private long[] firstPopupTs = new long[INITIAL_CAPACITY];
+    private long[] cooldownTs = new long[INITIAL_CAPACITY];
+    private final BitSet allowed = new BitSet(INITIAL_CAPACITY);
+    // Optional persistence; rows are journaled by package name
+    private SessionJournal journal;
+    private PackageRegistry registry;
+
+    public void attachJournal(SessionJournal journal, PackageRegistry registry) {
+        this.journal = journal;
+        this.registry = registry;
+    }
+
+    // Reinstates a row read back from the journal, without writing it again
+    public void restore(int id, long open, long firstPopup, long cooldown, boolean isAllowed) {
+        ensureCapacity(id);
+        openTs[id] = open;
+        firstPopupTs[id] = firstPopup;
+        cooldownTs[id] = cooldown;
+        allowed.set(id, isAllowed);
+    }
+
+    public long getOpenTs(int id) {
+        return id < openTs.length ? openTs[id] : 0L;
+    }
+
+    public void setOpenTs(int id, long ts) {
+        ensureCapacity(id);
+        openTs[id] = ts;
+        persist(id);
+    }
+
+    public long getFirstPopupTs(int id) {
+        return id < firstPopupTs.length ? firstPopupTs[id] : 0L;
+    }
+
+    public void setFirstPopupTs(int id, long ts) {
+        ensureCapacity(id);
+        firstPopupTs[id] = ts;
+        persist(id);
+    }
+
+    // Milliseconds left on id's cooldown of cooldownMs, 0 if none; an expired cooldown is dropped
+    public long cooldownRemaining(int id, long cooldownMs, long now) {
+        if (id >= cooldownTs.length || cooldownTs[id] == 0L) {
+            return 0L;
+        }
+        long left = cooldownTs[id] + cooldownMs - now;
+        if (left <= 0) {
+            cooldownTs[id] = 0L;
+            persist(id);
+            return 0L;
+        }
+        return left;
+    }
+
+    public void startCooldown(int id, long ts) {
+        ensureCapacity(id);
+        cooldownTs[id] = ts;
+        persist(id);
+    }
+
+    public boolean isAllowed(int id) {
+        return allowed.get(id);
+    }
+
+    public void setAllowed(int id, boolean value) {
+        ensureCapacity(id);
+        allowed.set(id, value);
+        persist(id);
+    }
+
+    // User switched away: the open/popup timeline restarts on the next open.
+    // The cooldown is deliberately kept; it expires on its own.
+    public void endSession(int id) {
+        if (id >= openTs.length) {
+            return;
+        }
+        // Most switches leave apps that never had a session; don't journal those
+        boolean hadSession = allowed.get(id) || openTs[id] != 0L || firstPopupTs[id] != 0L;
+        allowed.clear(id);
+        openTs[id] = 0L;
+        firstPopupTs[id] = 0L;
+        if (hadSession) {
+            persist(id);
+        }
+    }
+
+    // Monitoring stopped: drop every open/popup timeline
+    public void clearTimelines() {
+        for (int id = 0; id < openTs.length; id++) {
+            if (openTs[id] != 0L || firstPopupTs[id] != 0L) {
+                openTs[id] = 0L;
+                firstPopupTs[id] = 0L;
+                persist(id);
+            }
+        }
+    }
+
+    private void persist(int id) {
+        if (journal != null) {
+            journal.write(id, registry.nameOf(id), openTs[id], firstPopupTs[id], cooldownTs[id], allowed.get(id));
+        }
+    }
+
+    private void ensureCapacity(int id) {
+        if (id < openTs.length) {
+            return;
+        }
+        int capacity = openTs.length;
+        while (capacity <= id) {
+            capacity *= 2;
+        }
+        openTs = Arrays.copyOf(openTs, capacity);
+        firstPopupTs = Arrays.copyOf(firstPopupTs, capacity);
+        cooldownTs = Arrays.copyOf(cooldownTs, capacity);
+    }
+
+    // Rows with any state set, for debugging; allocates
+    public List<Map<String, Object>> snapshot(PackageRegistry registry) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int id = 0; id < openTs.length; id++) {
+            if (openTs[id] == 0L && firstPopupTs[id] == 0L && cooldownTs[id] == 0L && !allowed.get(id)) {
+                continue;
+            }
+            Map<String, Object> row = new HashMap<>();
+            row.put("packageName", registry.nameOf(id));
+            row.put("openTs", openTs[id]);
+            row.put("firstPopupTs", firstPopupTs[id]);
+            row.put("cooldownTs", cooldownTs[id]);
+            row.put("allowed", allowed.get(id));
+            rows.add(row);
+        }
+        return rows;
+    }
+}
@@ -4,16 +4,14 @@ package com.doomscrollstopper;
  * SettingsModule
  * ---------------
  * Lightweight bridge for persisting and retrieving user settings.
- * Currently manages the blocked apps set via SharedPreferences.
+ * Currently manages the blocked apps set and the monitoring switch.
  *
  * Notes:
- *  - Uses a single preferences file (doomscroll_prefs) and key (blocked_apps).
- *  - Writes are applied asynchronously (apply) to avoid main-thread blocking.
+ *  - Reads come from SettingsStore's in-memory snapshot; no disk access per call.
+ *  - Blocked apps are saved through the shared AppUsageMonitor so the running engine
+ *    and the stored copy never disagree. Writes reach disk asynchronously.
  */
 
-import android.content.SharedPreferences;
-import android.content.Context;
-
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
@@ -44,8 +42,7 @@ public class SettingsModule extends ReactContextBaseJavaModule {
     @ReactMethod
     public void getBlockedApps(com.facebook.react.bridge.Callback callback) {
         Log.d(TAG, "[GET] getBlockedApps called");
-        SharedPreferences prefs = reactContext.getSharedPreferences("doomscroll_prefs", Context.MODE_PRIVATE);
-        Set<String> blockedApps = prefs.getStringSet("blocked_apps", new HashSet<>());
+        Set<String> blockedApps = SettingsStore.getInstance(reactContext).get().blockedApps;
         Log.d(TAG, "[GET] returning " + blockedApps.size() + " apps: " + blockedApps.toString());
 
         // CRITICAL FIX: Convert Set to WritableArray so React Native receives a proper
@@ -63,17 +60,15 @@ public class SettingsModule extends ReactContextBaseJavaModule {
     @ReactMethod
     public void saveMonitoringEnabled(boolean enabled) {
         Log.d(TAG, "[SAVE] saveMonitoringEnabled called with enabled=" + enabled);
-        SharedPreferences prefs = reactContext.getSharedPreferences("doomscroll_prefs", Context.MODE_PRIVATE);
-        prefs.edit().putBoolean("monitoring_enabled", enabled).apply();
+        SettingsStore.getInstance(reactContext).edit(settings -> settings.setMonitoringEnabled(enabled));
         Log.d(TAG, "[SAVE] monitoring_enabled=" + enabled + " saved");
     }
 
     @ReactMethod
     public void getMonitoringEnabled(com.facebook.react.bridge.Callback callback) {
         Log.d(TAG, "[GET] getMonitoringEnabled called");
-        SharedPreferences prefs = reactContext.getSharedPreferences("doomscroll_prefs", Context.MODE_PRIVATE);
-        // Default to true so that after onboarding the blocker starts as ON
-        boolean enabled = prefs.getBoolean("monitoring_enabled", true);
+        // Defaults to true so that after onboarding the blocker starts as ON
+        boolean enabled = SettingsStore.getInstance(reactContext).get().monitoringEnabled;
         Log.d(TAG, "[GET] monitoring_enabled=" + enabled);
         callback.invoke(enabled);
     }
@@ -81,8 +76,6 @@ public class SettingsModule extends ReactContextBaseJavaModule {
     @ReactMethod
     public void saveBlockedApps(ReadableArray apps) {
         Log.d(TAG, "[SAVE] saveBlockedApps called with size=" + apps.size());
-        SharedPreferences prefs = reactContext.getSharedPreferences("doomscroll_prefs", Context.MODE_PRIVATE);
-        SharedPreferences.Editor editor = prefs.edit();
         Set<String> appSet = new HashSet<>();
 
         for (int i = 0; i < apps.size(); i++) {
@@ -91,9 +84,8 @@ public class SettingsModule extends ReactContextBaseJavaModule {
         }
         Log.d(TAG, "[SAVE] saving set size=" + appSet.size() + " data=" + appSet.toString());
 
-        editor.putStringSet("blocked_apps", appSet);
-        editor.apply();
-        Log.d(TAG, "[SAVE] apply complete");
+        AppUsageMonitor.getInstance(reactContext).saveBlockedApps(appSet);
+        Log.d(TAG, "[SAVE] published and queued for write");
     }
 
 }
@@ -0,0 +1,598 @@
+package com.doomscrollstopper;
+
+/*
+ * SettingsStore
+ * --------------
+ * The one place user settings live: blocked apps, monitoring on/off, the overlay message
+ * and countdown, the popup delay and the usage history retention.
+ * Responsibilities:
+ *  - Load settings once per process with a single file read
+ *  - Publish them as an immutable Settings snapshot (volatile reference; readers never lock)
+ *  - Persist every change to filesDir/settings.bin atomically (temp file, fsync, rename)
+ *  - Migrate the old doomscroll_prefs values the first time it runs
+ *  - Announce each new snapshot on its ConfigBus, versioned by `revision`
+ *  - Apply add/remove deltas to the blocklist against its own `blocklistVersion`
+ *    (optimistic concurrency) and persist them as journal appends
+ *
+ * settings.bin (big-endian, DataOutputStream):
+ *    int MAGIC | int FORMAT_VERSION | long revision | long blocklistVersion (format 2+)
+ *    | boolean monitoringEnabled | UTF delayMessage | int delaySeconds | int popupDelayMinutes
+ *    | long minuteRetentionMs | long hourRetentionMs | long dayRetentionMs
+ *    | int blockedCount | UTF package * blockedCount | long crc32 of everything before it
+ *
+ * settings.journal: blocklist deltas since settings.bin was written, one record each:
+ *    byte op (1 add, 2 remove) | long revision | long blocklistVersion | int count
+ *    | UTF package * count | long crc32 of the record
+ *
+ * Notes:
+ *  - edit()/editBlocklist() publish the new snapshot immediately and write on a background
+ *    thread. A full edit rewrites settings.bin and empties the journal; a blocklist delta only
+ *    appends a record, so a toggle costs O(change) on disk. After JOURNAL_COMPACT_RECORDS
+ *    records the journal is folded back into settings.bin.
+ *  - Loading replays journal records newer than settings.bin and truncates the file at the
+ *    first torn or corrupt one.
+ *  - Snapshots share the blocked-app set until it changes. A delta still copies the whole
+ *    set once (O(blocked apps) in memory) so published snapshots stay immutable; only the
+ *    bridge payload and the disk write are O(change).
+ *  - A missing, truncated or corrupt settings.bin falls back to the prefs migration / defaults.
+ */
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+public class SettingsStore {
+    private static final String TAG = "SettingsStore";
+    private static final int MAGIC = 0x44535353; // "DSSS"
+    private static final int FORMAT_VERSION = 2;
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int JOURNAL_COMPACT_RECORDS = 256;
+    // Larger package counts in a journal record can only come from corruption
+    private static final int MAX_JOURNAL_PACKAGES = 10000;
+    private static final String LEGACY_PREFS = "doomscroll_prefs";
+
+    // How one blocklist version was reached from the previous one
+    public static final class BlocklistDelta {
+        public final long fromVersion;
+        public final Set<String> added;
+        public final Set<String> removed;
+
+        BlocklistDelta(long fromVersion, Set<String> added, Set<String> removed) {
+            this.fromVersion = fromVersion;
+            this.added = added;
+            this.removed = removed;
+        }
+    }
+
+    // editBlocklist() was called with a version the blocklist has moved past
+    public static class VersionConflictException extends Exception {
+        public final Settings current;
+
+        VersionConflictException(long expected, Settings current) {
+            super("Blocklist is at version " + current.blocklistVersion + ", expected " + expected);
+            this.current = current;
+        }
+    }
+
+    public static final class Settings {
+        // Bumped on every edit; persisted, so it keeps increasing across restarts
+        public final long revision;
+        // Bumped only when the blocked-app set changes
+        public final long blocklistVersion;
+        // Change that produced blocklistVersion, or null if unknown (full replace or load)
+        public final BlocklistDelta blocklistDelta;
+        public final Set<String> blockedApps;
+        public final boolean monitoringEnabled;
+        public final String delayMessage;
+        public final int delaySeconds;
+        public final int popupDelayMinutes;
+        public final UsageRollupStore.RetentionPolicy retention;
+
+        private Settings(Builder builder) {
+            this.revision = builder.revision;
+            this.blocklistVersion = builder.blocklistVersion;
+            this.blocklistDelta = builder.blocklistDelta;
+            this.blockedApps = builder.blockedApps;
+            this.monitoringEnabled = builder.monitoringEnabled;
+            this.delayMessage = builder.delayMessage;
+            this.delaySeconds = builder.delaySeconds;
+            this.popupDelayMinutes = builder.popupDelayMinutes;
+            this.retention = builder.retention;
+        }
+
+        public Builder toBuilder() {
+            Builder builder = new Builder();
+            builder.revision = revision;
+            builder.blocklistVersion = blocklistVersion;
+            builder.blocklistDelta = blocklistDelta;
+            // Shared until setBlockedApps replaces it
+            builder.blockedApps = blockedApps;
+            builder.monitoringEnabled = monitoringEnabled;
+            builder.delayMessage = delayMessage;
+            builder.delaySeconds = delaySeconds;
+            builder.popupDelayMinutes = popupDelayMinutes;
+            builder.retention = retention;
+            return builder;
+        }
+    }
+
+    public static final class Builder {
+        private long revision = 0L;
+        private long blocklistVersion = 0L;
+        private BlocklistDelta blocklistDelta;
+        private boolean blockedAppsChanged = false;
+        // Always unmodifiable, so snapshots can share it
+        private Set<String> blockedApps = Collections.emptySet();
+        // Default to true so that after onboarding the blocker starts as ON
+        private boolean monitoringEnabled = true;
+        private String delayMessage = "Take a moment to consider if you really need this app right now";
+        private int delaySeconds = 15;
+        private int popupDelayMinutes = 1;
+        private UsageRollupStore.RetentionPolicy retention = UsageRollupStore.RetentionPolicy.DEFAULT;
+
+        public Builder setBlockedApps(Collection<String> apps) {
+            this.blockedApps = Collections.unmodifiableSet(new HashSet<>(apps));
+            this.blockedAppsChanged = true;
+            return this;
+        }
+
+        public Builder setMonitoringEnabled(boolean enabled) {
+            this.monitoringEnabled = enabled;
+            return this;
+        }
+
+        public Builder setDelayMessage(String message) {
+            this.delayMessage = message;
+            return this;
+        }
+
+        public Builder setDelaySeconds(int seconds) {
+            this.delaySeconds = seconds;
+            return this;
+        }
+
+        public Builder setPopupDelayMinutes(int minutes) {
+            this.popupDelayMinutes = minutes;
+            return this;
+        }
+
+        public Builder setRetention(UsageRollupStore.RetentionPolicy retention) {
+            this.retention = retention;
+            return this;
+        }
+
+        Settings build() {
+            return new Settings(this);
+        }
+    }
+
+    public interface Editor {
+        void edit(Builder builder);
+    }
+
+    private static SettingsStore instance;
+
+    private final File file;
+    private final Handler writer;
+    private final Object writeLock = new Object();
+    private final File journalFile;
+    private volatile Settings current;
+    private final ConfigBus bus;
+    // Latest snapshot not yet on disk, if a full write is due (guarded by writeLock)
+    private Settings pendingWrite;
+    // Blocklist deltas not yet journaled, in order (guarded by writeLock)
+    private List<Settings> pendingDeltas = new ArrayList<>();
+    // Writer thread only (and the constructor, before it runs)
+    private int journalRecords = 0;
+    private boolean journalNeedsRewrite = false;
+
+    private final Runnable writeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Settings toWrite;
+            List<Settings> deltas;
+            synchronized (writeLock) {
+                toWrite = pendingWrite;
+                pendingWrite = null;
+                deltas = pendingDeltas;
+                pendingDeltas = new ArrayList<>();
+            }
+            if (toWrite != null) {
+                write(toWrite);
+            } else if (!deltas.isEmpty()) {
+                appendJournal(deltas);
+                if (journalRecords >= JOURNAL_COMPACT_RECORDS) {
+                    write(current);
+                }
+            }
+        }
+    };
+
+    public static synchronized SettingsStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new SettingsStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SettingsStore(Context context) {
+        this.file = new File(context.getFilesDir(), "settings.bin");
+        this.journalFile = new File(context.getFilesDir(), "settings.journal");
+        HandlerThread thread = new HandlerThread("SettingsStore", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        this.writer = new Handler(thread.getLooper());
+
+        Settings loaded = read();
+        if (loaded == null) {
+            loaded = migrateFromPrefs(context);
+            write(loaded);
+        } else {
+            loaded = replayJournal(loaded);
+            if (journalNeedsRewrite) {
+                write(loaded);
+            }
+        }
+        this.current = loaded;
+        this.bus = new ConfigBus(loaded);
+        Log.d(TAG, "[LOAD] revision=" + loaded.revision + " blocked=" + loaded.blockedApps.size());
+    }
+
+    public Settings get() {
+        return current;
+    }
+
+    public ConfigBus getBus() {
+        return bus;
+    }
+
+    /**
+     * Applies editor to a copy of the current settings, publishes the result on the bus and
+     * queues the write. Returns the published snapshot; its revision is the version to await.
+     */
+    public Settings edit(Editor editor) {
+        Settings next;
+        synchronized (writeLock) {
+            Builder builder = current.toBuilder();
+            editor.edit(builder);
+            builder.revision = current.revision + 1;
+            if (builder.blockedAppsChanged) {
+                builder.blocklistVersion = current.blocklistVersion + 1;
+                builder.blocklistDelta = null;
+            }
+            next = builder.build();
+            current = next;
+            // The full write covers any deltas still queued
+            pendingWrite = next;
+            pendingDeltas.clear();
+            // Inside the lock so versions reach the bus in order
+            bus.publish(next);
+        }
+        writer.removeCallbacks(writeRunnable);
+        writer.post(writeRunnable);
+        return next;
+    }
+
+    /**
+     * Adds and removes packages in one step. expectedVersion is the blocklistVersion the caller
+     * last saw (negative to skip the check); a mismatch throws VersionConflictException with
+     * the current settings so the caller can rebase. Packages already in the requested state
+     * are ignored; if nothing changes, no new version is published.
+     */
+    public Settings editBlocklist(long expectedVersion, Collection<String> add, Collection<String> remove)
+            throws VersionConflictException {
+        Settings next;
+        synchronized (writeLock) {
+            if (expectedVersion >= 0 && expectedVersion != current.blocklistVersion) {
+                throw new VersionConflictException(expectedVersion, current);
+            }
+            Set<String> requestedAdds = new HashSet<>(add);
+            Set<String> added = new HashSet<>();
+            for (String app : requestedAdds) {
+                if (!current.blockedApps.contains(app)) {
+                    added.add(app);
+                }
+            }
+            Set<String> removed = new HashSet<>();
+            for (String app : remove) {
+                // A package both added and removed stays blocked
+                if (current.blockedApps.contains(app) && !requestedAdds.contains(app)) {
+                    removed.add(app);
+                }
+            }
+            if (added.isEmpty() && removed.isEmpty()) {
+                return current;
+            }
+            Set<String> apps = new HashSet<>(current.blockedApps);
+            apps.addAll(added);
+            apps.removeAll(removed);
+            Builder builder = current.toBuilder();
+            builder.blockedApps = Collections.unmodifiableSet(apps);
+            builder.revision = current.revision + 1;
+            builder.blocklistVersion = current.blocklistVersion + 1;
+            builder.blocklistDelta = new BlocklistDelta(current.blocklistVersion,
+                    Collections.unmodifiableSet(added), Collections.unmodifiableSet(removed));
+            next = builder.build();
+            current = next;
+            if (pendingWrite != null) {
+                pendingWrite = next;
+            } else {
+                pendingDeltas.add(next);
+            }
+            bus.publish(next);
+        }
+        writer.removeCallbacks(writeRunnable);
+        writer.post(writeRunnable);
+        return next;
+    }
+
+    // Writer thread: one record per delta, appended and synced together
+    private void appendJournal(List<Settings> deltas) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * deltas.size());
+            int records = 0;
+            for (Settings settings : deltas) {
+                BlocklistDelta delta = settings.blocklistDelta;
+                if (!delta.added.isEmpty()) {
+                    writeJournalRecord(bytes, OP_ADD, settings, delta.added);
+                    records++;
+                }
+                if (!delta.removed.isEmpty()) {
+                    writeJournalRecord(bytes, OP_REMOVE, settings, delta.removed);
+                    records++;
+                }
+            }
+            try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+                bytes.writeTo(out);
+                out.getFD().sync();
+            }
+            journalRecords += records;
+            Log.d(TAG, "[JOURNAL] +" + records + " records, " + journalRecords + " since last full write");
+        } catch (IOException e) {
+            Log.e(TAG, "Error journaling blocklist change; writing full settings", e);
+            write(current);
+        }
+    }
+
+    private static void writeJournalRecord(ByteArrayOutputStream bytes, byte op, Settings settings,
+                                           Set<String> apps) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeByte(op);
+        out.writeLong(settings.revision);
+        out.writeLong(settings.blocklistVersion);
+        out.writeInt(apps.size());
+        for (String app : apps) {
+            out.writeUTF(app);
+        }
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(record.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+        record.writeTo(bytes);
+    }
+
+    // Applies journal records written after base. A torn or corrupt tail (crash mid-append)
+    // is cut off, so later appends land right after the last good record.
+    private Settings replayJournal(Settings base) {
+        if (!journalFile.isFile()) {
+            return base;
+        }
+        Set<String> apps = new HashSet<>(base.blockedApps);
+        long revision = base.revision;
+        long blocklistVersion = base.blocklistVersion;
+        int applied = 0;
+        long goodBytes = 0L;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(journalFile)))) {
+            while (true) {
+                ByteArrayOutputStream record = new ByteArrayOutputStream();
+                DataOutputStream copy = new DataOutputStream(record);
+                byte op = in.readByte();
+                long recordRevision = in.readLong();
+                long recordBlocklistVersion = in.readLong();
+                int count = in.readInt();
+                if ((op != OP_ADD && op != OP_REMOVE) || count <= 0 || count > MAX_JOURNAL_PACKAGES) {
+                    Log.w(TAG, "[JOURNAL] corrupt record header, ignoring the rest");
+                    break;
+                }
+                copy.writeByte(op);
+                copy.writeLong(recordRevision);
+                copy.writeLong(recordBlocklistVersion);
+                copy.writeInt(count);
+                List<String> packages = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    String app = in.readUTF();
+                    copy.writeUTF(app);
+                    packages.add(app);
+                }
+                copy.flush();
+                CRC32 crc = new CRC32();
+                crc.update(record.toByteArray());
+                if (in.readLong() != crc.getValue()) {
+                    Log.w(TAG, "[JOURNAL] checksum mismatch, ignoring the rest");
+                    break;
+                }
+                journalRecords++;
+                goodBytes += record.size() + 8;
+                if (recordRevision <= base.revision) {
+                    continue; // already folded into settings.bin
+                }
+                if (op == OP_ADD) {
+                    apps.addAll(packages);
+                } else {
+                    apps.removeAll(packages);
+                }
+                revision = Math.max(revision, recordRevision);
+                blocklistVersion = Math.max(blocklistVersion, recordBlocklistVersion);
+                applied++;
+            }
+        } catch (EOFException e) {
+            // End of journal (or a torn final record)
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading settings journal", e);
+        }
+        if (goodBytes < journalFile.length()) {
+            truncateJournal(goodBytes);
+        }
+        if (applied == 0) {
+            return base;
+        }
+        Builder builder = base.toBuilder();
+        builder.blockedApps = Collections.unmodifiableSet(apps);
+        builder.revision = revision;
+        builder.blocklistVersion = blocklistVersion;
+        Log.d(TAG, "[JOURNAL] replayed " + applied + " records, blocklist version " + blocklistVersion);
+        return builder.build();
+    }
+
+    private void truncateJournal(long length) {
+        Log.w(TAG, "[JOURNAL] dropping " + (journalFile.length() - length) + " bytes of bad tail");
+        try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+            raf.setLength(length);
+            raf.getFD().sync();
+        } catch (IOException e) {
+            // Appending after the bad bytes would hide every later record; the constructor
+            // folds the journal into settings.bin (which deletes it) instead
+            Log.e(TAG, "Error truncating settings journal", e);
+            journalNeedsRewrite = true;
+        }
+    }
+
+    private Settings read() {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            if (read < 8 + 8) {
+                throw new IOException("Truncated settings file");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, read - 8);
+            DataInputStream body = new DataInputStream(new ByteArrayInputStream(data, 0, read));
+            if (body.readInt() != MAGIC) {
+                throw new IOException("Not a settings file");
+            }
+            int format = body.readInt();
+            if (format < 1 || format > FORMAT_VERSION) {
+                throw new IOException("Unsupported settings format " + format);
+            }
+            Builder builder = new Builder();
+            builder.revision = body.readLong();
+            if (format >= 2) {
+                builder.blocklistVersion = body.readLong();
+            }
+            builder.monitoringEnabled = body.readBoolean();
+            builder.delayMessage = body.readUTF();
+            builder.delaySeconds = body.readInt();
+            builder.popupDelayMinutes = body.readInt();
+            builder.retention = new UsageRollupStore.RetentionPolicy(body.readLong(), body.readLong(), body.readLong());
+            int count = body.readInt();
+            Set<String> apps = new HashSet<>(Math.max(16, count * 2));
+            for (int i = 0; i < count; i++) {
+                apps.add(body.readUTF());
+            }
+            builder.blockedApps = Collections.unmodifiableSet(apps);
+            if (body.readLong() != crc.getValue()) {
+                throw new IOException("Settings checksum mismatch");
+            }
+            return builder.build();
+        } catch (IOException e) {
+            Log.e(TAG, "Discarding unreadable settings file", e);
+            return null;
+        }
+    }
+
+    private void write(Settings settings) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(settings.revision);
+            out.writeLong(settings.blocklistVersion);
+            out.writeBoolean(settings.monitoringEnabled);
+            out.writeUTF(settings.delayMessage);
+            out.writeInt(settings.delaySeconds);
+            out.writeInt(settings.popupDelayMinutes);
+            out.writeLong(settings.retention.minuteRetentionMs);
+            out.writeLong(settings.retention.hourRetentionMs);
+            out.writeLong(settings.retention.dayRetentionMs);
+            out.writeInt(settings.blockedApps.size());
+            for (String app : settings.blockedApps) {
+                out.writeUTF(app);
+            }
+            out.flush();
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+            out.flush();
+
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream fileOut = new FileOutputStream(tmp)) {
+                bytes.writeTo(fileOut);
+                fileOut.getFD().sync();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot replace " + file);
+            }
+            // Everything journaled so far is in settings.bin now
+            if (journalFile.exists() && !journalFile.delete()) {
+                Log.w(TAG, "Could not delete " + journalFile);
+            }
+            journalRecords = 0;
+            Log.d(TAG, "[WRITE] revision=" + settings.revision + " bytes=" + bytes.size());
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing settings", e);
+        }
+    }
+
+    // First run after the update: carry over what SharedPreferences held
+    private static Settings migrateFromPrefs(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(LEGACY_PREFS, Context.MODE_PRIVATE);
+        Builder builder = new Builder();
+        builder.blockedApps = Collections.unmodifiableSet(
+                new HashSet<>(prefs.getStringSet("blocked_apps", new HashSet<>())));
+        builder.monitoringEnabled = prefs.getBoolean("monitoring_enabled", true);
+        UsageRollupStore.RetentionPolicy defaults = UsageRollupStore.RetentionPolicy.DEFAULT;
+        builder.retention = new UsageRollupStore.RetentionPolicy(
+                prefs.getLong("retention_minute_ms", defaults.minuteRetentionMs),
+                prefs.getLong("retention_hour_ms", defaults.hourRetentionMs),
+                prefs.getLong("retention_day_ms", defaults.dayRetentionMs));
+        Log.d(TAG, "[MIGRATE] " + builder.blockedApps.size() + " blocked apps from " + LEGACY_PREFS);
+        return builder.build();
+    }
+}
@@ -0,0 +1,142 @@
+package com.doomscrollstopper;
+
+/*
+ * TraceBuffer
+ * ------------
+ * Process-wide, fixed-size ring buffer of structured detection events.
+ * Replaces the per-tick Log.d string building in AppUsageMonitor with records of
+ * (wall time, event type, package, two long arguments) written into preallocated
+ * parallel arrays.
+ *
+ * Notes on Performance:
+ *  - record() allocates nothing: primitives go into long/int arrays and the package
+ *    is stored as a reference to the String the caller already holds.
+ *  - Tracing is off by default; then record() is a single volatile read and a branch.
+ *    Turn it on with setTracingEnabled(true) from JS, or
+ *    `adb shell dumpsys activity service com.doomscrollstopper/.MyVpnService trace on`.
+ *  - Formatting only happens in dump(), on demand (bridge dumpTrace, or
+ *    `adb shell dumpsys activity service com.doomscrollstopper/.MyVpnService`).
+ *  - Writers on the detection and UI threads share one uncontended lock.
+ */
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+public final class TraceBuffer {
+    // Event types; argument meaning is listed next to each
+    public static final int TICK = 1;              // a = events scanned, b = scheduler state ordinal
+    public static final int FOREGROUND = 2;        // pkg = foreground app, a = since ts
+    public static final int DECISION = 3;          // pkg, a = DECISION_* flags, b = ms since first popup (-1 none)
+    public static final int SESSION_OPENED = 4;    // pkg, a = open ts
+    public static final int SESSION_CLEARED = 5;   // pkg = app switched away from
+    public static final int SKIP_DEBOUNCE = 6;     // pkg
+    public static final int SKIP_COOLDOWN = 7;     // pkg, a = cooldown ms remaining
+    public static final int OVERLAY_SHOW = 8;      // pkg, a = 1 for second popup
+    public static final int OVERLAY_HIDE = 9;      // pkg
+    public static final int SCHEDULE = 10;         // a = from state ordinal, b = to state ordinal
+    public static final int BLOCKLIST = 11;        // a = blocked app count
+    public static final int FOREGROUND_NONE = 12;  // nothing resumed this tick
+
+    // DECISION flag bits
+    public static final long DECISION_BLOCKED = 1;
+    public static final long DECISION_ALLOWED = 1 << 1;
+    public static final long DECISION_OVERLAY_ACTIVE = 1 << 2;
+    public static final long DECISION_SHOW_FIRST = 1 << 3;
+    public static final long DECISION_SHOW_SECOND = 1 << 4;
+    public static final long DECISION_NO_OPEN_TS = 1 << 5;
+
+    private static final int CAPACITY = 2048; // power of two
+    private static final int MASK = CAPACITY - 1;
+
+    private static final long[] times = new long[CAPACITY];
+    private static final int[] types = new int[CAPACITY];
+    private static final String[] packages = new String[CAPACITY];
+    private static final long[] argsA = new long[CAPACITY];
+    private static final long[] argsB = new long[CAPACITY];
+    private static final Object lock = new Object();
+    private static long written = 0L;
+
+    // Off by default so production devices pay nothing; turned on from the bridge or dumpsys
+    private static volatile boolean enabled = false;
+
+    private TraceBuffer() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static void record(int type, String packageName, long a, long b) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (lock) {
+            int slot = (int) (written & MASK);
+            times[slot] = now;
+            types[slot] = type;
+            packages[slot] = packageName;
+            argsA[slot] = a;
+            argsB[slot] = b;
+            written++;
+        }
+    }
+
+    public static void clear() {
+        synchronized (lock) {
+            for (int i = 0; i < CAPACITY; i++) {
+                packages[i] = null;
+            }
+            written = 0L;
+        }
+    }
+
+    // Oldest-first formatted lines; allocates, so only call on demand
+    public static List<String> dumpLines() {
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+        List<String> lines = new ArrayList<>();
+        synchronized (lock) {
+            long first = Math.max(0L, written - CAPACITY);
+            for (long i = first; i < written; i++) {
+                int slot = (int) (i & MASK);
+                lines.add(format.format(new Date(times[slot])) + " " + typeName(types[slot])
+                        + (packages[slot] != null ? " " + packages[slot] : "")
+                        + " a=" + argsA[slot] + " b=" + argsB[slot]);
+            }
+        }
+        return lines;
+    }
+
+    public static void dump(PrintWriter writer) {
+        writer.println("TraceBuffer enabled=" + enabled + " capacity=" + CAPACITY);
+        for (String line : dumpLines()) {
+            writer.println(line);
+        }
+    }
+
+    private static String typeName(int type) {
+        switch (type) {
+            case TICK: return "TICK";
+            case FOREGROUND: return "FOREGROUND";
+            case DECISION: return "DECISION";
+            case SESSION_OPENED: return "SESSION_OPENED";
+            case SESSION_CLEARED: return "SESSION_CLEARED";
+            case SKIP_DEBOUNCE: return "SKIP_DEBOUNCE";
+            case SKIP_COOLDOWN: return "SKIP_COOLDOWN";
+            case OVERLAY_SHOW: return "OVERLAY_SHOW";
+            case OVERLAY_HIDE: return "OVERLAY_HIDE";
+            case SCHEDULE: return "SCHEDULE";
+            case BLOCKLIST: return "BLOCKLIST";
+            case FOREGROUND_NONE: return "FOREGROUND_NONE";
+            default: return "TYPE_" + type;
+        }
+    }
+}
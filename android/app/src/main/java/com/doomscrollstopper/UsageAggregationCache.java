@@ -0,0 +1,150 @@
+package com.doomscrollstopper;
+
+/*
+ * UsageAggregationCache
+ * ----------------------
+ * Shared cache of per-package foreground time, keyed by (daily UsageStats bucket, package).
+ * Backs AppUsageMonitor.getAppUsageTime / getTotalScreenTime / getTopAppsByUsage and
+ * ScreenTimeTracker, which previously each issued their own queryUsageStats IPC.
+ *
+ * Notes:
+ *  - Buckets are the system's INTERVAL_DAILY buckets, keyed by their first timestamp, so a
+ *    range answer is the same "sum of daily buckets overlapping [start, end]" the direct
+ *    queries returned.
+ *  - Closed buckets (every bucket but the newest) never change and are kept forever.
+ *    Only the open bucket is re-queried, and only once it is older than OPEN_BUCKET_TTL_MS.
+ *  - Coverage grows backwards: a range starting before anything cached costs one query
+ *    from that start to now; everything after it is then served from memory.
+ *  - Methods are synchronized; a caller that arrives while another is querying waits and
+ *    is answered from the freshly filled cache instead of issuing its own IPC.
+ */
+
+import android.app.usage.UsageStats;
+import android.app.usage.UsageStatsManager;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class UsageAggregationCache {
+    private static final String TAG = "UsageAggregationCache";
+    private static final long OPEN_BUCKET_TTL_MS = 30 * 1000;
+
+    private static final class Bucket {
+        final long endTs;
+        final Map<String, Long> totals;
+
+        Bucket(long endTs, Map<String, Long> totals) {
+            this.endTs = endTs;
+            this.totals = totals;
+        }
+    }
+
+    private final UsageStatsManager usageStatsManager;
+    // Bucket first timestamp -> bucket
+    private final TreeMap<Long, Bucket> buckets = new TreeMap<>();
+    // Every bucket overlapping [coveredSince, now] is cached
+    private long coveredSince = Long.MAX_VALUE;
+    private long openRefreshedAt = 0L;
+    private long queries = 0L;
+    private long requests = 0L;
+
+    public UsageAggregationCache(UsageStatsManager usageStatsManager) {
+        this.usageStatsManager = usageStatsManager;
+    }
+
+    /**
+     * Foreground milliseconds per package summed over the daily buckets overlapping
+     * [startTime, endTime]. The returned map is a fresh copy owned by the caller.
+     */
+    public synchronized Map<String, Long> getTotals(long startTime, long endTime) {
+        requests++;
+        ensureCovered(startTime, endTime, System.currentTimeMillis());
+        Map<String, Long> result = new HashMap<>();
+        for (Bucket bucket : buckets.headMap(endTime, true).values()) {
+            if (bucket.endTs < startTime) {
+                continue;
+            }
+            for (Map.Entry<String, Long> entry : bucket.totals.entrySet()) {
+                Long previous = result.get(entry.getKey());
+                result.put(entry.getKey(), previous == null ? entry.getValue() : previous + entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    public long getPackageTotal(String packageName, long startTime, long endTime) {
+        Long total = getTotals(startTime, endTime).get(packageName);
+        return total != null ? total : 0L;
+    }
+
+    public long getDeviceTotal(long startTime, long endTime) {
+        long total = 0L;
+        for (long value : getTotals(startTime, endTime).values()) {
+            total += value;
+        }
+        return total;
+    }
+
+    private void ensureCovered(long startTime, long endTime, long now) {
+        if (startTime < coveredSince) {
+            // One query fills the older range and refreshes the open bucket at the same time.
+            // Nothing back (no usage access yet): leave coverage alone so the next call retries
+            if (load(startTime, now)) {
+                coveredSince = startTime;
+                openRefreshedAt = now;
+            }
+            return;
+        }
+        if (buckets.isEmpty()) {
+            return;
+        }
+        long openStart = buckets.lastKey();
+        if (endTime >= openStart && now - openRefreshedAt > OPEN_BUCKET_TTL_MS) {
+            load(openStart, now);
+            openRefreshedAt = now;
+        }
+    }
+
+    // Replaces every bucket the query returns; closed buckets come back unchanged
+    private boolean load(long startTime, long endTime) {
+        queries++;
+        List<UsageStats> stats = usageStatsManager.queryUsageStats(
+                UsageStatsManager.INTERVAL_DAILY, startTime, endTime);
+        if (stats == null || stats.isEmpty()) {
+            return false;
+        }
+        Map<Long, Bucket> loaded = new HashMap<>();
+        for (UsageStats stat : stats) {
+            long first = stat.getFirstTimeStamp();
+            Bucket bucket = loaded.get(first);
+            if (bucket == null) {
+                bucket = new Bucket(stat.getLastTimeStamp(), new HashMap<>());
+                loaded.put(first, bucket);
+            }
+            Long previous = bucket.totals.get(stat.getPackageName());
+            long time = stat.getTotalTimeInForeground();
+            bucket.totals.put(stat.getPackageName(), previous == null ? time : previous + time);
+        }
+        buckets.putAll(loaded);
+        Log.d(TAG, "[LOAD] " + stats.size() + " stats in " + loaded.size() + " buckets; cached=" + buckets.size());
+        return true;
+    }
+
+    // Forget everything, e.g. after the time zone or wall clock changed
+    public synchronized void invalidate() {
+        buckets.clear();
+        coveredSince = Long.MAX_VALUE;
+        openRefreshedAt = 0L;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("buckets", buckets.size());
+        stats.put("requests", requests);
+        stats.put("queries", queries);
+        return stats;
+    }
+}
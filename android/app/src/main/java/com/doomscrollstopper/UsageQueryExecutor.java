@@ -0,0 +1,198 @@
+package com.doomscrollstopper;
+
+/*
+ * UsageQueryExecutor
+ * -------------------
+ * Runs VPNModule's blocking stats queries (UsageStatsManager / PackageManager IPC) off the
+ * React Native native-modules thread.
+ * Responsibilities:
+ *  - Bounded pool (MAX_THREADS workers, QUEUE_CAPACITY waiting); overflow is rejected with
+ *    QUERY_BUSY instead of piling up
+ *  - Single flight: a request whose key matches one already running joins it and gets the
+ *    same result; the query runs once
+ *  - Deadline: a query still running after QUERY_TIMEOUT_MS is dropped, its waiters are
+ *    rejected with QUERY_TIMEOUT and a late result is discarded
+ *
+ * Notes:
+ *  - The key must identify the call and all its arguments (e.g. "getTopAppsByUsage:s:e:n").
+ *  - A query that throws QueryException rejects with the exception's own code instead of
+ *    the call's errorCode (e.g. to tell JS a retry will succeed).
+ *  - Queries return plain Java values; each waiter converts its own copy to a Writable*
+ *    because React Native maps/arrays can only be resolved once.
+ */
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.facebook.react.bridge.Promise;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class UsageQueryExecutor {
+    private static final String TAG = "UsageQueryExecutor";
+    private static final int MAX_THREADS = 2;
+    private static final int QUEUE_CAPACITY = 16;
+    private static final long QUERY_TIMEOUT_MS = 10 * 1000;
+
+    // Failure with its own promise rejection code
+    public static class QueryException extends Exception {
+        final String code;
+
+        public QueryException(String code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    private static final class Waiter {
+        final String errorCode;
+        final Function<Object, Object> toJs;
+        final Promise promise;
+
+        Waiter(String errorCode, Function<Object, Object> toJs, Promise promise) {
+            this.errorCode = errorCode;
+            this.toJs = toJs;
+            this.promise = promise;
+        }
+    }
+
+    private static final class Flight {
+        final List<Waiter> waiters = new ArrayList<>();
+        Future<?> future;
+    }
+
+    private final ThreadPoolExecutor pool;
+    // Only posts timeout checks; no query work runs here
+    private final Handler timeoutHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Flight> inFlight = new HashMap<>();
+    private final Object lock = new Object();
+
+    private long submitted = 0L;
+    private long coalesced = 0L;
+    private long timedOut = 0L;
+    private long rejected = 0L;
+
+    public UsageQueryExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        pool = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                runnable -> new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, "UsageQuery-" + threadCount.incrementAndGet()));
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs {@code query} for {@code key} unless an identical one is already in flight, then
+     * resolves {@code promise} with {@code toJs(result)}. Failures reject with {@code errorCode}.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void submit(String key, String errorCode, Callable<T> query, Function<T, Object> toJs,
+                           Promise promise) {
+        Waiter waiter = new Waiter(errorCode, (Function<Object, Object>) (Function<?, ?>) toJs, promise);
+        Flight flight;
+        synchronized (lock) {
+            submitted++;
+            Flight existing = inFlight.get(key);
+            if (existing != null) {
+                coalesced++;
+                existing.waiters.add(waiter);
+                return;
+            }
+            flight = new Flight();
+            flight.waiters.add(waiter);
+            inFlight.put(key, flight);
+            try {
+                flight.future = pool.submit(() -> run(key, flight, query));
+            } catch (RejectedExecutionException e) {
+                inFlight.remove(key);
+                rejected++;
+                Log.w(TAG, "[BUSY] rejected " + key);
+                promise.reject("QUERY_BUSY", "Too many usage queries in progress");
+                return;
+            }
+        }
+        timeoutHandler.postDelayed(() -> expire(key, flight), QUERY_TIMEOUT_MS);
+    }
+
+    private void run(String key, Flight flight, Callable<?> query) {
+        Object result = null;
+        Exception error = null;
+        try {
+            result = query.call();
+        } catch (Exception e) {
+            error = e;
+        }
+        List<Waiter> waiters;
+        synchronized (lock) {
+            if (inFlight.get(key) != flight) {
+                return; // timed out; waiters were already rejected
+            }
+            inFlight.remove(key);
+            waiters = new ArrayList<>(flight.waiters);
+        }
+        for (Waiter waiter : waiters) {
+            if (error != null) {
+                Log.e(TAG, "Query " + key + " failed", error);
+                String code = error instanceof QueryException
+                        ? ((QueryException) error).code : waiter.errorCode;
+                waiter.promise.reject(code, error.getMessage());
+                continue;
+            }
+            try {
+                waiter.promise.resolve(waiter.toJs.apply(result));
+            } catch (Exception e) {
+                waiter.promise.reject(waiter.errorCode, e.getMessage());
+            }
+        }
+    }
+
+    private void expire(String key, Flight flight) {
+        List<Waiter> waiters;
+        synchronized (lock) {
+            if (inFlight.get(key) != flight) {
+                return; // finished in time
+            }
+            inFlight.remove(key);
+            timedOut++;
+            waiters = new ArrayList<>(flight.waiters);
+        }
+        if (flight.future != null) {
+            flight.future.cancel(true);
+        }
+        Log.w(TAG, "[TIMEOUT] dropped " + key + " after " + QUERY_TIMEOUT_MS + "ms");
+        for (Waiter waiter : waiters) {
+            waiter.promise.reject("QUERY_TIMEOUT", "Usage query took longer than " + QUERY_TIMEOUT_MS + "ms");
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (lock) {
+            stats.put("submitted", submitted);
+            stats.put("coalesced", coalesced);
+            stats.put("timedOut", timedOut);
+            stats.put("rejected", rejected);
+            stats.put("inFlight", inFlight.size());
+        }
+        return stats;
+    }
+}
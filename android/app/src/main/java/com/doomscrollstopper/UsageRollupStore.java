@@ -0,0 +1,604 @@
+package com.doomscrollstopper;
+
+/*
+ * UsageRollupStore
+ * -----------------
+ * Hourly, daily and weekly per-app totals summarized from UsageTimeSeriesStore, so long
+ * ranges (month/year charts) read a few hundred rollup records instead of every minute.
+ * Responsibilities:
+ *  - Roll up each period once it has closed (rollUp(), nudged by the detection loop and by
+ *    reads; the work runs on the store's own background thread)
+ *  - Answer range totals from the coarsest tier that covers each part of the range,
+ *    falling back to finer tiers and finally minute records at the edges (getTotals)
+ *  - Compact: once a period is rolled up into the next tier, finer data older than the
+ *    RetentionPolicy is dropped (minutes -> hours -> days; weeks are kept)
+ *
+ * File layout (filesDir/usage_series/, next to minutes.dat):
+ *  - rollup_hour.dat, rollup_day.dat, rollup_week.dat: fixed 20-byte records, big-endian,
+ *      long periodStart | int periodLengthMs | int packageIndex | int foregroundMs
+ *    one record per app with usage in the period; a period's records are contiguous and
+ *    periods are appended in time order. Package indexes are UsageTimeSeriesStore's.
+ *  - rollup.meta: how far each tier is built and compacted, written by temp file + rename.
+ *
+ * Notes:
+ *  - Hours are UTC hours; days and weeks are local (Calendar, first day of week from the
+ *    locale) as of when the period closed. Each record carries its own length, so a time
+ *    zone change never reinterprets periods already written.
+ *  - Every tier is summed from minute records while they are still retained, so totals
+ *    are exact rather than re-aggregated from a tier that might not align (e.g. UTC+5:30).
+ *  - Once finer data is compacted, a query edge that does not fall on a retained period
+ *    boundary is answered to the finest resolution still kept.
+ *  - Threading: rollUp() is a volatile read until an hour closes, then posts one job to the
+ *    store's HandlerThread and returns. That job sums the closed periods from minute records
+ *    without holding the store lock and takes it only to append the results, rewrite a
+ *    compacted tier file and write rollup.meta. Reads (getTotals/getSeries) hold the lock
+ *    while they read; periods not rolled up yet are answered from minute records, so a
+ *    read never waits for a roll-up to finish. Minute compaction runs outside the lock.
+ */
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class UsageRollupStore {
+    private static final String TAG = "UsageRollupStore";
+    private static final int RECORD_BYTES = 20;
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    private static final long DAY_MS = 24 * HOUR_MS;
+
+    public enum Resolution { HOUR, DAY, WEEK }
+
+    public static final class RetentionPolicy {
+        public final long minuteRetentionMs;
+        public final long hourRetentionMs;
+        public final long dayRetentionMs;
+
+        public RetentionPolicy(long minuteRetentionMs, long hourRetentionMs, long dayRetentionMs) {
+            this.minuteRetentionMs = minuteRetentionMs;
+            this.hourRetentionMs = hourRetentionMs;
+            this.dayRetentionMs = dayRetentionMs;
+        }
+
+        public static final RetentionPolicy DEFAULT = new RetentionPolicy(14 * DAY_MS, 90 * DAY_MS, 730 * DAY_MS);
+    }
+
+    public static final class Period {
+        public final long start;
+        public final long end;
+        public final Map<String, Long> totals;
+
+        Period(long start, long end, Map<String, Long> totals) {
+            this.start = start;
+            this.end = end;
+            this.totals = totals;
+        }
+    }
+
+    // Location of one period's records in a tier file
+    private static final class Slot {
+        final long end;
+        final long offset;
+        final int count;
+
+        Slot(long end, long offset, int count) {
+            this.end = end;
+            this.offset = offset;
+            this.count = count;
+        }
+    }
+
+    private final class Tier {
+        final Resolution resolution;
+        final File file;
+        // periodStart -> slot; only periods with usage have records
+        final TreeMap<Long, Slot> index = new TreeMap<>();
+        FileChannel channel;
+        long size = 0L;
+        // End of the last period rolled up (with or without usage)
+        long builtUntil = 0L;
+        // Periods ending before this may have been compacted away; a missing one is unknown, not empty
+        long keptFrom = 0L;
+
+        Tier(Resolution resolution, File file) {
+            this.resolution = resolution;
+            this.file = file;
+        }
+
+        // True if [start, end) is a whole period of this tier that was rolled up with no usage
+        boolean isEmptyPeriod(long start, long end) {
+            return start >= keptFrom && end <= builtUntil && !index.containsKey(start)
+                    && periodStart(start, resolution) == start && periodEnd(start, resolution) == end;
+        }
+
+        void open() throws IOException {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            long raw = channel.size();
+            size = raw - (raw % RECORD_BYTES);
+            if (size != raw) {
+                channel.truncate(size);
+            }
+            index.clear();
+            if (size == 0) {
+                return;
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            long currentStart = Long.MIN_VALUE;
+            long currentOffset = 0L;
+            long currentEnd = 0L;
+            int count = 0;
+            for (int pos = 0; pos < size; pos += RECORD_BYTES) {
+                long start = map.getLong(pos);
+                if (start != currentStart) {
+                    if (count > 0) {
+                        index.put(currentStart, new Slot(currentEnd, currentOffset, count));
+                    }
+                    currentStart = start;
+                    currentOffset = pos;
+                    currentEnd = start + map.getInt(pos + 8);
+                    count = 0;
+                }
+                count++;
+            }
+            index.put(currentStart, new Slot(currentEnd, currentOffset, count));
+            builtUntil = Math.max(builtUntil, currentEnd);
+        }
+
+        void append(long start, long end, Map<String, Long> totals) throws IOException {
+            if (!totals.isEmpty()) {
+                ByteBuffer buffer = ByteBuffer.allocate(totals.size() * RECORD_BYTES);
+                for (Map.Entry<String, Long> entry : totals.entrySet()) {
+                    buffer.putLong(start);
+                    buffer.putInt((int) (end - start));
+                    buffer.putInt(minutes.internPackage(entry.getKey()));
+                    buffer.putInt((int) Math.min(Integer.MAX_VALUE, entry.getValue()));
+                }
+                buffer.flip();
+                long offset = size;
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, size + buffer.position());
+                }
+                size += totals.size() * (long) RECORD_BYTES;
+                index.put(start, new Slot(end, offset, totals.size()));
+            }
+            builtUntil = end;
+        }
+
+        void addTo(Slot slot, Map<String, Long> totals) throws IOException {
+            recordsRead += slot.count;
+            ByteBuffer buffer = ByteBuffer.allocate(slot.count * RECORD_BYTES);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, slot.offset + buffer.position()) < 0) {
+                    throw new IOException("Truncated " + file.getName());
+                }
+            }
+            for (int pos = 0; pos < slot.count * RECORD_BYTES; pos += RECORD_BYTES) {
+                add(totals, minutes.packageName(buffer.getInt(pos + 12)), buffer.getInt(pos + 16));
+            }
+        }
+
+        // Drops every period that ends at or before cutoff
+        void compactBefore(long cutoff) throws IOException {
+            Long keepFrom = null;
+            for (Map.Entry<Long, Slot> entry : index.entrySet()) {
+                if (entry.getValue().end > cutoff) {
+                    keepFrom = entry.getKey();
+                    break;
+                }
+            }
+            long dropBytes = keepFrom != null ? index.get(keepFrom).offset : size;
+            if (dropBytes == 0) {
+                return;
+            }
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileChannel out = new FileOutputStream(tmp).getChannel()) {
+                long position = dropBytes;
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, out);
+                }
+                out.force(true);
+            }
+            channel.close();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot replace " + file);
+            }
+            open();
+            keptFrom = Math.max(keptFrom, cutoff);
+            Log.d(TAG, "[COMPACT] " + file.getName() + " dropped " + (dropBytes / RECORD_BYTES) + " records");
+        }
+    }
+
+    private final UsageTimeSeriesStore minutes;
+    private final File dir;
+    private final File metaFile;
+    private final Tier hours;
+    private final Tier days;
+    private final Tier weeks;
+    private volatile RetentionPolicy retention = RetentionPolicy.DEFAULT;
+    // Roll-ups and compaction run here, never on the caller's thread
+    private final Handler worker;
+    private final AtomicBoolean rollUpQueued = new AtomicBoolean(false);
+    private final Runnable rollUpRunnable = () -> {
+        rollUpQueued.set(false);
+        runRollUp(System.currentTimeMillis());
+    };
+    // Guarded by this; tiers are only appended to and compacted by the worker
+    private boolean opened = false;
+    // Earliest time any data may exist; nothing is rolled up before it
+    private long historyStart = -1L;
+    // Cheap guard so rollUp() is a no-op until the next hour closes; written by the worker
+    private volatile long nextHourEnd = 0L;
+    // Anything before this may have lost its minute records
+    private long minutesCompactedUntil = 0L;
+    private long recordsRead = 0L;
+    private long minuteFallbacks = 0L;
+
+    public UsageRollupStore(File filesDir, UsageTimeSeriesStore minutes) {
+        this.minutes = minutes;
+        this.dir = new File(filesDir, "usage_series");
+        this.metaFile = new File(dir, "rollup.meta");
+        this.hours = new Tier(Resolution.HOUR, new File(dir, "rollup_hour.dat"));
+        this.days = new Tier(Resolution.DAY, new File(dir, "rollup_day.dat"));
+        this.weeks = new Tier(Resolution.WEEK, new File(dir, "rollup_week.dat"));
+        HandlerThread thread = new HandlerThread("UsageRollupStore", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        this.worker = new Handler(thread.getLooper());
+    }
+
+    // Applied at the next compaction
+    public void setRetentionPolicy(RetentionPolicy policy) {
+        this.retention = policy;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (opened) {
+            return;
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        readMeta();
+        for (Tier tier : tiers()) {
+            tier.open();
+        }
+        opened = true;
+        Log.d(TAG, "[OPEN] hours=" + hours.index.size() + " days=" + days.index.size() + " weeks=" + weeks.index.size());
+    }
+
+    private void readMeta() throws IOException {
+        if (!metaFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(metaFile))) {
+            historyStart = in.readLong();
+            minutesCompactedUntil = in.readLong();
+            for (Tier tier : tiers()) {
+                tier.builtUntil = in.readLong();
+                tier.keptFrom = in.readLong();
+            }
+        }
+    }
+
+    private void writeMeta() throws IOException {
+        File tmp = new File(dir, "rollup.meta.tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(fileOut)) {
+            out.writeLong(historyStart);
+            out.writeLong(minutesCompactedUntil);
+            for (Tier tier : tiers()) {
+                out.writeLong(tier.builtUntil);
+                out.writeLong(tier.keptFrom);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        if (!tmp.renameTo(metaFile)) {
+            throw new IOException("Cannot replace " + metaFile);
+        }
+    }
+
+    /**
+     * Schedules a roll-up of every hour, day and week that closed before now. A volatile read
+     * when no hour has closed since the last one, so it can run after every recorded interval;
+     * otherwise one job is queued on the worker (repeated calls coalesce) and this returns.
+     */
+    public void rollUp(long now) {
+        if (now < nextHourEnd) {
+            return;
+        }
+        if (rollUpQueued.compareAndSet(false, true)) {
+            worker.post(rollUpRunnable);
+        }
+    }
+
+    // A closed period and its totals, summed outside the lock
+    private static final class Closed {
+        final Tier tier;
+        final long start;
+        final long end;
+        final Map<String, Long> totals;
+
+        Closed(Tier tier, long start, long end, Map<String, Long> totals) {
+            this.tier = tier;
+            this.start = start;
+            this.end = end;
+            this.totals = totals;
+        }
+    }
+
+    // Worker thread. The only writer of tiers, so what it reads under the lock stays valid after
+    private void runRollUp(long now) {
+        try {
+            long hour;
+            long day;
+            long week;
+            synchronized (this) {
+                ensureOpen();
+                if (historyStart < 0) {
+                    historyStart = minutes.getFirstRecordTime();
+                    if (historyStart < 0) {
+                        nextHourEnd = hourStart(now) + HOUR_MS;
+                        return;
+                    }
+                }
+                hour = Math.max(hours.builtUntil, hourStart(historyStart));
+                day = Math.max(days.builtUntil, periodStart(historyStart, Resolution.DAY));
+                week = Math.max(weeks.builtUntil, periodStart(historyStart, Resolution.WEEK));
+            }
+
+            // The expensive part: scanning minute records, up to a week per period
+            List<Closed> closed = new ArrayList<>();
+            while (hour + HOUR_MS <= now) {
+                closed.add(new Closed(hours, hour, hour + HOUR_MS, minutes.getTotals(hour, hour + HOUR_MS)));
+                hour += HOUR_MS;
+            }
+            boolean dayClosed = false;
+            for (long end = periodEnd(day, Resolution.DAY); end <= now; end = periodEnd(day, Resolution.DAY)) {
+                closed.add(new Closed(days, day, end, minutes.getTotals(day, end)));
+                day = end;
+                dayClosed = true;
+            }
+            for (long end = periodEnd(week, Resolution.WEEK); end <= now; end = periodEnd(week, Resolution.WEEK)) {
+                closed.add(new Closed(weeks, week, end, minutes.getTotals(week, end)));
+                week = end;
+            }
+
+            synchronized (this) {
+                for (Closed period : closed) {
+                    period.tier.append(period.start, period.end, period.totals);
+                }
+                if (dayClosed) {
+                    compactTiers(now);
+                }
+                writeMeta();
+            }
+            if (dayClosed) {
+                compactMinutes(now);
+            }
+            nextHourEnd = hour + HOUR_MS;
+        } catch (IOException e) {
+            Log.e(TAG, "Error rolling up usage", e);
+            // Retry at the next hour rather than on every interval
+            nextHourEnd = hourStart(now) + HOUR_MS;
+        }
+    }
+
+    // Drops hour/day data a coarser tier already summarizes and the retention policy no longer keeps
+    private void compactTiers(long now) throws IOException {
+        RetentionPolicy policy = retention;
+        hours.compactBefore(Math.min(now - policy.hourRetentionMs, days.builtUntil));
+        days.compactBefore(Math.min(now - policy.dayRetentionMs, weeks.builtUntil));
+    }
+
+    // Worker thread, without the store lock: minute records older than the policy keeps
+    private void compactMinutes(long now) throws IOException {
+        long cutoff;
+        synchronized (this) {
+            // Never past the start of an open hour/day/week: those are still summed from minutes
+            cutoff = Math.min(now - retention.minuteRetentionMs,
+                    Math.min(hours.builtUntil, Math.min(days.builtUntil, weeks.builtUntil)));
+            if (cutoff <= minutesCompactedUntil) {
+                return;
+            }
+        }
+        // Readers may still fall back to these minutes meanwhile; the minute store locks itself
+        minutes.compactBefore(cutoff);
+        synchronized (this) {
+            minutesCompactedUntil = cutoff;
+            writeMeta();
+        }
+    }
+
+    /**
+     * Package -> foreground ms in [fromMs, toMs). Each stretch of the range is read from the
+     * coarsest rolled-up period that fits inside it; what is left over (range edges, the
+     * still-open hour) comes from minute records.
+     */
+    public synchronized Map<String, Long> getTotals(long fromMs, long toMs) {
+        Map<String, Long> totals = new HashMap<>();
+        try {
+            // Never waits: periods not rolled up yet are read from minute records below
+            rollUp(System.currentTimeMillis());
+            ensureOpen();
+            long cursor = fromMs;
+            while (cursor < toMs) {
+                long covered = addCoarsestPeriod(cursor, toMs, totals);
+                if (covered > cursor) {
+                    cursor = covered;
+                    continue;
+                }
+                long next = Math.min(toMs, nextBoundary(cursor));
+                if (next > minutesCompactedUntil) {
+                    minuteFallbacks++;
+                    add(totals, minutes.getTotals(Math.max(cursor, minutesCompactedUntil), next));
+                }
+                cursor = next;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading usage rollups", e);
+        }
+        return totals;
+    }
+
+    /**
+     * Adds the coarsest rolled-up period that starts at cursor and ends by toMs to totals
+     * and returns its end, or returns cursor if no tier has such a period.
+     */
+    private long addCoarsestPeriod(long cursor, long toMs, Map<String, Long> totals) throws IOException {
+        for (Tier tier : new Tier[] { weeks, days, hours }) {
+            Slot slot = tier.index.get(cursor);
+            if (slot != null && slot.end <= toMs) {
+                tier.addTo(slot, totals);
+                return slot.end;
+            }
+            if (slot == null && cursor < tier.builtUntil) {
+                long end = periodEnd(cursor, tier.resolution);
+                if (end <= toMs && tier.isEmptyPeriod(cursor, end)) {
+                    return end;
+                }
+            }
+        }
+        return cursor;
+    }
+
+    // Next instant after cursor at which some tier has a period starting
+    private long nextBoundary(long cursor) {
+        long next = hourStart(cursor) + HOUR_MS;
+        for (Tier tier : new Tier[] { days, weeks }) {
+            Long start = tier.index.higherKey(cursor);
+            if (start != null) {
+                next = Math.min(next, start);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Per-period totals at the given resolution for periods overlapping [fromMs, toMs),
+     * e.g. the bars of a chart. Rolled-up periods are read as stored; the still-open
+     * period and any not yet rolled up are computed through getTotals().
+     */
+    public synchronized List<Period> getSeries(long fromMs, long toMs, Resolution resolution) {
+        List<Period> series = new ArrayList<>();
+        try {
+            rollUp(System.currentTimeMillis());
+            ensureOpen();
+            Tier tier = tier(resolution);
+            long start = periodStart(fromMs, resolution);
+            while (start < toMs) {
+                Slot slot = tier.index.get(start);
+                Map<String, Long> totals;
+                long end;
+                if (slot != null) {
+                    totals = new HashMap<>();
+                    tier.addTo(slot, totals);
+                    end = slot.end;
+                } else {
+                    end = periodEnd(start, resolution);
+                    totals = tier.isEmptyPeriod(start, end)
+                            ? new HashMap<>()
+                            : getTotals(Math.max(start, fromMs), Math.min(end, toMs));
+                }
+                if (!totals.isEmpty()) {
+                    series.add(new Period(start, end, totals));
+                }
+                start = end;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading usage series", e);
+        }
+        return series;
+    }
+
+    private Tier[] tiers() {
+        return new Tier[] { hours, days, weeks };
+    }
+
+    private Tier tier(Resolution resolution) {
+        switch (resolution) {
+            case HOUR:
+                return hours;
+            case WEEK:
+                return weeks;
+            default:
+                return days;
+        }
+    }
+
+    private static long hourStart(long ts) {
+        return Math.floorDiv(ts, HOUR_MS) * HOUR_MS;
+    }
+
+    // Start of the local day/week (or UTC hour) containing ts
+    private static long periodStart(long ts, Resolution resolution) {
+        if (resolution == Resolution.HOUR) {
+            return hourStart(ts);
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(ts);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        if (resolution == Resolution.WEEK) {
+            int back = (calendar.get(Calendar.DAY_OF_WEEK) - calendar.getFirstDayOfWeek() + 7) % 7;
+            calendar.add(Calendar.DAY_OF_YEAR, -back);
+        }
+        return calendar.getTimeInMillis();
+    }
+
+    // End of the period starting at start; DST days are 23 or 25 hours long
+    private static long periodEnd(long start, Resolution resolution) {
+        if (resolution == Resolution.HOUR) {
+            return start + HOUR_MS;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(start);
+        calendar.add(Calendar.DAY_OF_YEAR, resolution == Resolution.WEEK ? 7 : 1);
+        return calendar.getTimeInMillis();
+    }
+
+    private static void add(Map<String, Long> totals, String packageName, long ms) {
+        Long previous = totals.get(packageName);
+        totals.put(packageName, previous == null ? ms : previous + ms);
+    }
+
+    private static void add(Map<String, Long> totals, Map<String, Long> more) {
+        for (Map.Entry<String, Long> entry : more.entrySet()) {
+            add(totals, entry.getKey(), entry.getValue());
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening usage rollups", e);
+        }
+        stats.put("hourPeriods", hours.index.size());
+        stats.put("dayPeriods", days.index.size());
+        stats.put("weekPeriods", weeks.index.size());
+        stats.put("recordsRead", recordsRead);
+        stats.put("minuteFallbacks", minuteFallbacks);
+        return stats;
+    }
+}
@@ -0,0 +1,270 @@
+package com.doomscrollstopper;
+
+/*
+ * UsageSessionizer
+ * -----------------
+ * Streaming state machine that turns the raw UsageEvents resume/pause stream into exact
+ * foreground sessions, clipped to a window that starts at windowStart.
+ * Responsibilities:
+ *  - Sum foreground time per package over exactly the requested range (the daily
+ *    UsageStats buckets do not line up with arbitrary ranges)
+ *  - Count launches: a package coming forward after a different package was last resumed
+ *  - Advance incrementally: advance(t) reads only events after the previous advance,
+ *    so a running total is cheap to keep up to date
+ *  - Or be fed by someone already reading the event stream (feed()/markAdvanced()),
+ *    in which case it issues no queries of its own
+ *
+ * Edge handling:
+ *  - The first advance() also reads a short look-back before windowStart to find the app
+ *    already in front when the window opened; it is credited from windowStart, even if it
+ *    produces no event inside the window. Events before windowStart only seed that state.
+ *  - A pause whose package was not resumed in the window or the look-back is an orphan:
+ *    the app was already in front when the window opened, so it is credited from windowStart
+ *    up to that event, or up to the first resume in the window if a late pause arrives after
+ *    another app already came forward.
+ *  - A resume still open at the latest advance is counted up to that time.
+ *  - Several activities of one package may be resumed in turn; the session only ends
+ *    when all of them are paused, or when another package comes forward.
+ *  - ACTIVITY_STOPPED is ignored: moving between activities of one app arrives as
+ *    A.pause, B.resume, A.stop, so a stop does not mean the app left the foreground.
+ *  - Device shutdown closes every open session.
+ *
+ * Notes:
+ *  - Single pass, O(events); state is one small slot per tracked package.
+ *  - An optional package filter limits the slots kept; launch detection still sees all events.
+ *  - Not thread-safe; use one instance per caller/thread.
+ */
+
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageStatsManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+public class UsageSessionizer {
+    private static final class Slot {
+        long total = 0L;
+        long openSince = 0L; // valid while this slot is `open`
+        int resumedActivities = 0;
+        boolean seen = false;
+        int launches = 0;
+    }
+
+    // How far before windowStart the first advance() looks for the app already in front
+    static final long SEED_LOOKBACK_MS = 3 * 60 * 60 * 1000L;
+
+    private final UsageStatsManager usageStatsManager;
+    private final long windowStart;
+    private final Set<String> filter; // null = every package
+    private final Map<String, Slot> slots = new HashMap<>();
+    // Reused for every event to avoid allocating per getNextEvent() call
+    private final UsageEvents.Event event = new UsageEvents.Event();
+
+    private long advancedTo;
+    private String lastResumed = null;
+    private long firstResumeTs = -1L; // first resume of any package inside the window
+    // The tracked package currently in front, if any; at most one at a time
+    private Slot open = null;
+    // Package in front just before windowStart, tracked from look-back events until the window opens
+    private String preWindowForeground = null;
+    private boolean windowOpened = false;
+
+    public UsageSessionizer(UsageStatsManager usageStatsManager, long windowStart, Set<String> filter) {
+        this.usageStatsManager = usageStatsManager;
+        this.windowStart = windowStart;
+        this.filter = filter;
+        this.advancedTo = windowStart;
+    }
+
+    // Reads events in [previous advance, until) and applies them; no-op if until is not later
+    public UsageSessionizer advance(long until) {
+        if (until <= advancedTo) {
+            return this;
+        }
+        long from = windowOpened ? advancedTo : windowStart - SEED_LOOKBACK_MS;
+        UsageEvents events = usageStatsManager.queryEvents(from, until);
+        while (events != null && events.hasNextEvent()) {
+            events.getNextEvent(event);
+            long ts = event.getTimeStamp();
+            if (ts < from || ts >= until || (windowOpened && ts < advancedTo)) {
+                continue;
+            }
+            accept(event.getEventType(), event.getPackageName(), ts);
+        }
+        openWindow();
+        advancedTo = until;
+        return this;
+    }
+
+    // Externally read event; ignored if it falls before the current advance point
+    public void feed(int type, String packageName, long ts) {
+        if (ts >= advancedTo || !windowOpened) {
+            accept(type, packageName, ts);
+        }
+    }
+
+    // The external reader has seen every event before until
+    public void markAdvanced(long until) {
+        openWindow();
+        if (until > advancedTo) {
+            advancedTo = until;
+        }
+    }
+
+    // Applies one event; events must arrive in time order. Events before windowStart only
+    // establish which app was in front when the window opened.
+    public void accept(int type, String packageName, long ts) {
+        if (ts < windowStart) {
+            seed(type, packageName);
+            return;
+        }
+        openWindow();
+        switch (type) {
+            case UsageEvents.Event.MOVE_TO_FOREGROUND: { // same value as ACTIVITY_RESUMED
+                boolean launch = !packageName.equals(lastResumed);
+                lastResumed = packageName;
+                if (firstResumeTs < 0) {
+                    firstResumeTs = ts;
+                }
+                Slot slot = slot(packageName);
+                if (open != null && open != slot) {
+                    // Another app came forward; whatever was in front is not any more
+                    close(ts);
+                }
+                if (slot == null) {
+                    return;
+                }
+                slot.seen = true;
+                if (launch) {
+                    slot.launches++;
+                }
+                if (open == slot) {
+                    slot.resumedActivities++;
+                } else {
+                    slot.openSince = ts;
+                    slot.resumedActivities = 1;
+                    open = slot;
+                }
+                break;
+            }
+            case UsageEvents.Event.MOVE_TO_BACKGROUND: { // same value as ACTIVITY_PAUSED
+                Slot slot = slot(packageName);
+                if (slot == null) {
+                    return;
+                }
+                if (slot == open) {
+                    if (--slot.resumedActivities <= 0) {
+                        close(ts);
+                    }
+                } else if (!slot.seen) {
+                    // Orphan: in front since before the window opened
+                    long orphanEnd = firstResumeTs >= 0 ? Math.min(ts, firstResumeTs) : ts;
+                    slot.total += Math.max(0L, orphanEnd - windowStart);
+                }
+                slot.seen = true;
+                break;
+            }
+            case UsageEvents.Event.DEVICE_SHUTDOWN:
+                close(ts);
+                lastResumed = null;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void seed(int type, String packageName) {
+        switch (type) {
+            case UsageEvents.Event.MOVE_TO_FOREGROUND:
+                preWindowForeground = packageName;
+                break;
+            case UsageEvents.Event.MOVE_TO_BACKGROUND:
+                if (packageName.equals(preWindowForeground)) {
+                    preWindowForeground = null;
+                }
+                break;
+            case UsageEvents.Event.DEVICE_SHUTDOWN:
+                preWindowForeground = null;
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Opens the session of the app that was in front at windowStart; once
+    private void openWindow() {
+        if (windowOpened) {
+            return;
+        }
+        windowOpened = true;
+        if (preWindowForeground == null) {
+            return;
+        }
+        // Continuing session: no launch, and a later resume of the same app is not one either
+        lastResumed = preWindowForeground;
+        Slot slot = slot(preWindowForeground);
+        if (slot != null) {
+            slot.seen = true;
+            slot.openSince = windowStart;
+            slot.resumedActivities = 1;
+            open = slot;
+        }
+        preWindowForeground = null;
+    }
+
+    private void close(long ts) {
+        if (open != null) {
+            open.total += ts - open.openSince;
+            open.resumedActivities = 0;
+            open = null;
+        }
+    }
+
+    private Slot slot(String packageName) {
+        Slot slot = slots.get(packageName);
+        if (slot == null && (filter == null || filter.contains(packageName))) {
+            slot = new Slot();
+            slots.put(packageName, slot);
+        }
+        return slot;
+    }
+
+    // Foreground ms in [windowStart, latest advance], including a session still open
+    public long getTotal(String packageName) {
+        return getTotalAsOf(packageName, advancedTo);
+    }
+
+    // Same, but a session still open is counted up to asOf (assumed still in front)
+    public long getTotalAsOf(String packageName, long asOf) {
+        Slot slot = slots.get(packageName);
+        if (slot == null) {
+            return 0L;
+        }
+        return slot == open ? slot.total + Math.max(0L, asOf - slot.openSince) : slot.total;
+    }
+
+    public int getLaunches(String packageName) {
+        Slot slot = slots.get(packageName);
+        return slot != null ? slot.launches : 0;
+    }
+
+    public Map<String, Long> getTotals() {
+        return getTotalsAsOf(advancedTo);
+    }
+
+    public Map<String, Long> getTotalsAsOf(long asOf) {
+        Map<String, Long> totals = new HashMap<>();
+        for (String packageName : slots.keySet()) {
+            long total = getTotalAsOf(packageName, asOf);
+            if (total > 0) {
+                totals.put(packageName, total);
+            }
+        }
+        return totals;
+    }
+
+    public long getAdvancedTo() {
+        return advancedTo;
+    }
+}
@@ -0,0 +1,348 @@
+package com.doomscrollstopper;
+
+/*
+ * UsageTimeSeriesStore
+ * ---------------------
+ * Local, append-only history of per-app foreground time at minute granularity.
+ * Android keeps raw UsageEvents for only a few days; this store keeps our own copy so
+ * weekly/monthly charts read a few contiguous pages of a local file instead of
+ * re-running large UsageStatsManager queries, and survive the OS retention window.
+ *
+ * File layout (filesDir/usage_series/):
+ *  - minutes.dat:  fixed 12-byte records, big-endian, in time order
+ *                    int epochMinute | int packageIndex | int foregroundMs (1..60000)
+ *                  A (minute, package) pair may appear more than once; readers sum them.
+ *  - packages.txt: one package name per line; line number = packageIndex
+ *
+ * Notes:
+ *  - Fed from ForegroundEventCursor intervals on the detection thread; each interval is
+ *    split on minute boundaries and appended in one write.
+ *  - Reads map only the byte range for the requested days (MappedByteBuffer, read-only).
+ *  - An in-memory index maps each UTC day (epochMinute / 1440) to the offset of its first
+ *    record, built by one scan when the store is opened. UTC keeps offsets monotonic across
+ *    time zone changes; callers bucket records into local days themselves.
+ *  - Intervals are clipped to start after everything already recorded, so cursor re-priming
+ *    never counts the same time twice.
+ *  - Closed hours, days and weeks are summarized by UsageRollupStore; compactBefore()
+ *    then drops minute records older than the retention policy keeps.
+ *  - Thread-safe: every public method is synchronized or reads through one that is.
+ */
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class UsageTimeSeriesStore {
+    private static final String TAG = "UsageTimeSeriesStore";
+    private static final int RECORD_BYTES = 12;
+    private static final long MINUTE_MS = 60 * 1000L;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final File dir;
+    private final File recordsFile;
+    private final File packagesFile;
+
+    private boolean opened = false;
+    private FileChannel channel;
+    private long recordCount = 0L;
+    // UTC day -> byte offset of its first record
+    private final TreeMap<Integer, Long> dayIndex = new TreeMap<>();
+    private final List<String> packageNames = new ArrayList<>();
+    private final Map<String, Integer> packageIndexes = new HashMap<>();
+    // Nothing before this wall-clock time may be recorded again
+    private long recordedUntil = 0L;
+
+    public UsageTimeSeriesStore(File filesDir) {
+        this.dir = new File(filesDir, "usage_series");
+        this.recordsFile = new File(dir, "minutes.dat");
+        this.packagesFile = new File(dir, "packages.txt");
+    }
+
+    // Opens the files and rebuilds the day index; called lazily by every public method
+    private void ensureOpen() throws IOException {
+        if (opened) {
+            return;
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        loadPackageNames();
+        channel = new RandomAccessFile(recordsFile, "rw").getChannel();
+        long size = channel.size();
+        long whole = size - (size % RECORD_BYTES);
+        if (whole != size) {
+            // A crash mid-append left a partial record; drop it
+            channel.truncate(whole);
+        }
+        recordCount = whole / RECORD_BYTES;
+        if (recordCount > 0) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, whole);
+            int lastDay = Integer.MIN_VALUE;
+            int lastMinute = 0;
+            for (long i = 0; i < recordCount; i++) {
+                int minute = map.getInt((int) (i * RECORD_BYTES));
+                int day = Math.floorDiv(minute, MINUTES_PER_DAY);
+                if (day != lastDay) {
+                    dayIndex.put(day, i * RECORD_BYTES);
+                    lastDay = day;
+                }
+                lastMinute = minute;
+            }
+            // Minute precision only: resume after the last recorded minute
+            recordedUntil = (lastMinute + 1L) * MINUTE_MS;
+        }
+        channel.position(whole);
+        opened = true;
+        Log.d(TAG, "[OPEN] records=" + recordCount + " days=" + dayIndex.size() + " packages=" + packageNames.size());
+    }
+
+    private void loadPackageNames() throws IOException {
+        if (!packagesFile.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(packagesFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                packageIndexes.put(line, packageNames.size());
+                packageNames.add(line);
+            }
+        }
+    }
+
+    private int packageIndex(String packageName) throws IOException {
+        Integer index = packageIndexes.get(packageName);
+        if (index != null) {
+            return index;
+        }
+        // Name goes to disk before any record references it
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(packagesFile, true), StandardCharsets.UTF_8)) {
+            writer.write(packageName);
+            writer.write('\n');
+        }
+        int next = packageNames.size();
+        packageNames.add(packageName);
+        packageIndexes.put(packageName, next);
+        return next;
+    }
+
+    /**
+     * Appends the foreground interval [startMs, endMs) of packageName, split per minute.
+     * Intervals must arrive in time order; any part already covered is ignored.
+     */
+    public synchronized void recordInterval(String packageName, long startMs, long endMs) {
+        try {
+            ensureOpen();
+            long start = Math.max(startMs, recordedUntil);
+            if (endMs <= start) {
+                return;
+            }
+            int index = packageIndex(packageName);
+            long firstMinute = start / MINUTE_MS;
+            long lastMinute = (endMs - 1) / MINUTE_MS;
+            ByteBuffer buffer = ByteBuffer.allocate((int) (lastMinute - firstMinute + 1) * RECORD_BYTES);
+            long recordOffset = recordCount * RECORD_BYTES;
+            for (long minute = firstMinute; minute <= lastMinute; minute++) {
+                long pieceStart = Math.max(start, minute * MINUTE_MS);
+                long pieceEnd = Math.min(endMs, (minute + 1) * MINUTE_MS);
+                int day = (int) Math.floorDiv(minute, (long) MINUTES_PER_DAY);
+                if (dayIndex.isEmpty() || dayIndex.lastKey() < day) {
+                    dayIndex.put(day, recordOffset + buffer.position());
+                }
+                buffer.putInt((int) minute);
+                buffer.putInt(index);
+                buffer.putInt((int) (pieceEnd - pieceStart));
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            recordCount += lastMinute - firstMinute + 1;
+            recordedUntil = endMs;
+        } catch (IOException e) {
+            Log.e(TAG, "Error recording interval for " + packageName, e);
+        }
+    }
+
+    public interface RecordVisitor {
+        void onRecord(long minuteStartMs, String packageName, int foregroundMs);
+    }
+
+    /**
+     * Visits every record whose minute starts in [fromMs, toMs) rounded out to whole minutes,
+     * in time order. Only the pages covering that range are mapped.
+     */
+    public synchronized void visitRecords(long fromMs, long toMs, RecordVisitor visitor) {
+        try {
+            ensureOpen();
+            if (recordCount == 0 || toMs <= fromMs) {
+                return;
+            }
+            long fromMinute = fromMs / MINUTE_MS;
+            long toMinute = (toMs - 1) / MINUTE_MS;
+            long begin = offsetOfDay((int) Math.floorDiv(fromMinute, (long) MINUTES_PER_DAY));
+            Map.Entry<Integer, Long> after = dayIndex.higherEntry((int) Math.floorDiv(toMinute, (long) MINUTES_PER_DAY));
+            long end = after != null ? after.getValue() : recordCount * RECORD_BYTES;
+            if (end <= begin) {
+                return;
+            }
+
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, begin, end - begin);
+            for (int pos = 0; pos + RECORD_BYTES <= end - begin; pos += RECORD_BYTES) {
+                long minute = map.getInt(pos);
+                if (minute < fromMinute || minute > toMinute) {
+                    continue;
+                }
+                visitor.onRecord(minute * MINUTE_MS, packageNames.get(map.getInt(pos + 4)), map.getInt(pos + 8));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading usage history", e);
+        }
+    }
+
+    // Package -> foreground ms recorded in [fromMs, toMs)
+    public Map<String, Long> getTotals(long fromMs, long toMs) {
+        Map<String, Long> totals = new HashMap<>();
+        visitRecords(fromMs, toMs, (minuteStartMs, packageName, foregroundMs) -> {
+            Long previous = totals.get(packageName);
+            totals.put(packageName, previous == null ? foregroundMs : previous + foregroundMs);
+        });
+        return totals;
+    }
+
+    /**
+     * Per local day (start of day in the default time zone) and package, the foreground
+     * milliseconds recorded in [fromMs, toMs).
+     */
+    @SuppressWarnings("unchecked")
+    public TreeMap<Long, Map<String, Long>> getDailyTotals(long fromMs, long toMs) {
+        TreeMap<Long, Map<String, Long>> days = new TreeMap<>();
+        Calendar calendar = Calendar.getInstance();
+        long[] day = { Long.MIN_VALUE, Long.MIN_VALUE };
+        Map<String, Long>[] current = new Map[1];
+        visitRecords(fromMs, toMs, (ts, packageName, ms) -> {
+            if (ts < day[0] || ts >= day[1]) {
+                calendar.setTimeInMillis(ts);
+                calendar.set(Calendar.HOUR_OF_DAY, 0);
+                calendar.set(Calendar.MINUTE, 0);
+                calendar.set(Calendar.SECOND, 0);
+                calendar.set(Calendar.MILLISECOND, 0);
+                day[0] = calendar.getTimeInMillis();
+                calendar.add(Calendar.DAY_OF_YEAR, 1);
+                day[1] = calendar.getTimeInMillis();
+                current[0] = days.get(day[0]);
+                if (current[0] == null) {
+                    current[0] = new HashMap<>();
+                    days.put(day[0], current[0]);
+                }
+            }
+            Long previous = current[0].get(packageName);
+            current[0].put(packageName, previous == null ? ms : previous + ms);
+        });
+        return days;
+    }
+
+    // Start of the oldest minute still stored, or -1 if the store is empty
+    public synchronized long getFirstRecordTime() {
+        try {
+            ensureOpen();
+            if (recordCount == 0) {
+                return -1L;
+            }
+            ByteBuffer first = ByteBuffer.allocate(4);
+            channel.read(first, 0);
+            return first.getInt(0) * MINUTE_MS;
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading usage history", e);
+            return -1L;
+        }
+    }
+
+    /**
+     * Drops every record of a UTC day that ends at or before cutoffMs (whole days only, so
+     * the day index stays valid). The kept tail is copied to a temp file that replaces
+     * minutes.dat by rename; a crash leaves either the old or the new file.
+     */
+    public synchronized void compactBefore(long cutoffMs) {
+        try {
+            ensureOpen();
+            int keepFromDay = (int) Math.floorDiv(cutoffMs / MINUTE_MS, (long) MINUTES_PER_DAY);
+            Map.Entry<Integer, Long> firstKept = dayIndex.ceilingEntry(keepFromDay);
+            long dropBytes = firstKept != null ? firstKept.getValue() : recordCount * RECORD_BYTES;
+            if (dropBytes == 0) {
+                return;
+            }
+            File tmp = new File(dir, "minutes.dat.tmp");
+            try (FileChannel out = new FileOutputStream(tmp).getChannel()) {
+                long size = recordCount * RECORD_BYTES;
+                long position = dropBytes;
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, out);
+                }
+                out.force(true);
+            }
+            channel.close();
+            if (!tmp.renameTo(recordsFile)) {
+                throw new IOException("Cannot replace " + recordsFile);
+            }
+            long kept = recordedUntil;
+            opened = false;
+            dayIndex.clear();
+            packageNames.clear();
+            packageIndexes.clear();
+            ensureOpen();
+            recordedUntil = Math.max(recordedUntil, kept);
+            Log.d(TAG, "[COMPACT] dropped " + (dropBytes / RECORD_BYTES) + " records before day " + keepFromDay);
+        } catch (IOException e) {
+            Log.e(TAG, "Error compacting usage history", e);
+        }
+    }
+
+    // Shared package table: rollup tiers store the same indexes as the minute records
+    public synchronized int internPackage(String packageName) throws IOException {
+        ensureOpen();
+        return packageIndex(packageName);
+    }
+
+    public synchronized String packageName(int index) throws IOException {
+        ensureOpen();
+        return packageNames.get(index);
+    }
+
+    // Offset of the first record on or after the given UTC day
+    private long offsetOfDay(int day) {
+        Map.Entry<Integer, Long> entry = dayIndex.ceilingEntry(day);
+        return entry != null ? entry.getValue() : recordCount * RECORD_BYTES;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening usage history", e);
+        }
+        stats.put("records", recordCount);
+        stats.put("days", dayIndex.size());
+        stats.put("packages", packageNames.size());
+        return stats;
+    }
+}
@@ -0,0 +1,223 @@
+package com.doomscrollstopper;
+
+/*
+ * UsageUpdateStream
+ * ------------------
+ * Push channel behind VPNModule.subscribeUsageUpdates: batches what changed since the last
+ * push and hands it to a Sink at a throttled rate, so JS screens stop polling.
+ * Each batch carries:
+ *  - foregroundChanges: app switches since the previous batch (package, label, time)
+ *  - totals:            today's per-app totals that changed since the previous batch
+ *  - todayTotal, interventions (running) and interventionsDelta
+ *
+ * Notes:
+ *  - Zero cost while nobody is subscribed: the stream only registers as an
+ *    AppUsageMonitor listener and only schedules flushes while subscribers exist.
+ *  - The push interval is the smallest interval any current subscriber asked for,
+ *    clamped to [MIN_INTERVAL_MS, MAX_INTERVAL_MS].
+ *  - A batch with nothing new is not sent. Each new subscriber gets a full batch (every
+ *    total) right away, since the Sink is shared by all subscribers.
+ *  - Flushes run on a small background HandlerThread; totals come from
+ *    DailyScreenTimeCounter (memory), so a flush does not query usage stats.
+ */
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class UsageUpdateStream implements AppUsageMonitor.AppDetectionListener {
+    private static final String TAG = "UsageUpdateStream";
+    private static final long MIN_INTERVAL_MS = 250;
+    private static final long MAX_INTERVAL_MS = 60 * 1000;
+
+    public interface Sink {
+        void onUsageUpdate(Batch batch);
+    }
+
+    public static final class ForegroundChange {
+        public final String packageName;
+        public final String appName;
+        public final long timestamp;
+
+        ForegroundChange(String packageName, String appName, long timestamp) {
+            this.packageName = packageName;
+            this.appName = appName;
+            this.timestamp = timestamp;
+        }
+    }
+
+    public static final class Batch {
+        public final List<ForegroundChange> foregroundChanges;
+        public final Map<String, Long> changedTotals;
+        public final long todayTotal;
+        public final long interventions;
+        public final long interventionsDelta;
+        public final long timestamp;
+
+        Batch(List<ForegroundChange> foregroundChanges, Map<String, Long> changedTotals, long todayTotal,
+              long interventions, long interventionsDelta, long timestamp) {
+            this.foregroundChanges = foregroundChanges;
+            this.changedTotals = changedTotals;
+            this.todayTotal = todayTotal;
+            this.interventions = interventions;
+            this.interventionsDelta = interventionsDelta;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final AppUsageMonitor monitor;
+    private final Sink sink;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    private final Map<Integer, Long> subscribers = new HashMap<>();
+    private int nextSubscriptionId = 1;
+    private long intervalMs = MAX_INTERVAL_MS;
+    private List<ForegroundChange> pendingChanges = new ArrayList<>();
+
+    // Flush thread only
+    private Map<String, Long> lastTotals = new HashMap<>();
+    private long lastInterventions = -1L;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long delay;
+            synchronized (lock) {
+                if (subscribers.isEmpty()) {
+                    return;
+                }
+                delay = intervalMs;
+            }
+            try {
+                flush();
+            } catch (Exception e) {
+                Log.e(TAG, "Error flushing usage update", e);
+            }
+            handler.postDelayed(this, delay);
+        }
+    };
+
+    public UsageUpdateStream(AppUsageMonitor monitor, Sink sink) {
+        this.monitor = monitor;
+        this.sink = sink;
+        this.thread = new HandlerThread("UsageUpdateStream", Process.THREAD_PRIORITY_BACKGROUND);
+        this.thread.start();
+        this.handler = new Handler(thread.getLooper());
+    }
+
+    // Returns the subscription id to pass to unsubscribe()
+    public int subscribe(long requestedIntervalMs) {
+        boolean first;
+        int id;
+        synchronized (lock) {
+            first = subscribers.isEmpty();
+            id = nextSubscriptionId++;
+            subscribers.put(id, Math.max(MIN_INTERVAL_MS, Math.min(MAX_INTERVAL_MS, requestedIntervalMs)));
+            intervalMs = smallestInterval();
+        }
+        if (first) {
+            monitor.addListener(this);
+        }
+        handler.post(() -> {
+            // New subscriber: the next batch carries every total, not just a delta
+            lastTotals = new HashMap<>();
+            lastInterventions = -1L;
+            // Reschedule so a faster subscriber takes effect immediately; done on this
+            // thread so it cannot interleave with a running flush re-posting itself
+            handler.removeCallbacks(flushRunnable);
+            flushRunnable.run();
+        });
+        Log.d(TAG, "[SUBSCRIBE] id=" + id + " interval=" + intervalMs + "ms");
+        return id;
+    }
+
+    public void unsubscribe(int id) {
+        boolean last;
+        synchronized (lock) {
+            if (subscribers.remove(id) == null) {
+                return;
+            }
+            last = subscribers.isEmpty();
+            if (!last) {
+                intervalMs = smallestInterval();
+            } else {
+                pendingChanges = new ArrayList<>();
+            }
+        }
+        if (last) {
+            monitor.removeListener(this);
+            handler.removeCallbacks(flushRunnable);
+        }
+        Log.d(TAG, "[UNSUBSCRIBE] id=" + id + (last ? " (paused)" : ""));
+    }
+
+    private long smallestInterval() {
+        long smallest = MAX_INTERVAL_MS;
+        for (long value : subscribers.values()) {
+            smallest = Math.min(smallest, value);
+        }
+        return smallest;
+    }
+
+    public void shutdown() {
+        synchronized (lock) {
+            subscribers.clear();
+            pendingChanges = new ArrayList<>();
+        }
+        monitor.removeListener(this);
+        thread.quitSafely();
+    }
+
+    @Override
+    public void onAppDetected(String packageName, String appName) {
+        synchronized (lock) {
+            if (!subscribers.isEmpty()) {
+                pendingChanges.add(new ForegroundChange(packageName, appName, System.currentTimeMillis()));
+            }
+        }
+    }
+
+    @Override
+    public void onBlockedAppOpened(String packageName, String appName) {
+        // Reflected through the intervention count in the next batch
+    }
+
+    private void flush() {
+        List<ForegroundChange> changes;
+        synchronized (lock) {
+            changes = pendingChanges;
+            pendingChanges = new ArrayList<>();
+        }
+
+        Map<String, Long> totals = monitor.getDailyCounter().getTodayTotals();
+        Map<String, Long> changed = new HashMap<>();
+        long todayTotal = 0L;
+        for (Map.Entry<String, Long> entry : totals.entrySet()) {
+            todayTotal += entry.getValue();
+            Long previous = lastTotals.get(entry.getKey());
+            if (previous == null || !previous.equals(entry.getValue())) {
+                changed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        long interventions = monitor.getInterventionCount();
+        long interventionsDelta = lastInterventions < 0 ? 0L : interventions - lastInterventions;
+        boolean interventionsChanged = interventions != lastInterventions;
+
+        if (changes.isEmpty() && changed.isEmpty() && !interventionsChanged) {
+            return;
+        }
+        lastTotals = totals;
+        lastInterventions = interventions;
+        sink.onUsageUpdate(new Batch(changes, changed, todayTotal, interventions, interventionsDelta,
+                System.currentTimeMillis()));
+    }
+}
@@ -25,12 +25,15 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableType;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.Callback;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.HashSet;
 import java.util.Set;
@@ -39,6 +42,8 @@ import android.app.ActivityManager;
 import android.content.Context;
 import android.net.VpnService;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.app.AppOpsManager;
 import android.content.pm.ApplicationInfo;
@@ -47,23 +52,20 @@ import android.content.Intent;
 import android.provider.Settings;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import android.content.pm.PackageManager;
-import android.content.SharedPreferences;
 
 /*
  * VPNModule
  * ---------
  * React Native native module acting as the bridge between JS and Android OS services.
  * 
- * CRITICAL ARCHITECTURE NOTE:
- * This module has its OWN AppUsageMonitor instance that is SEPARATE from MyVpnService's instance.
- * Both monitors must have synchronized blocked apps lists for the overlay to work correctly.
- * 
- * KEY FIXES APPLIED:
- * 1. loadBlockedAppsIntoMonitor() - Loads blocked apps from SharedPreferences into VPNModule's monitor
- * 2. setBlockedApps() - Now updates BOTH VPNModule's monitor AND sends to MyVpnService
- * 3. startMonitoring() - Reloads blocked apps before starting the monitor
- * 4. Constructor - Loads blocked apps immediately when module is initialized
+ * ARCHITECTURE NOTE:
+ * This module and MyVpnService share ONE process-wide AppUsageMonitor (AppUsageMonitor.getInstance).
+ * Settings changes are applied to that engine directly, in-process; the service is only
+ * started/stopped through Intents and never receives settings.
  */
 
 //This module doesn't send any packet or traffic data back to React Native.
@@ -73,67 +75,47 @@ import android.content.SharedPreferences;
 public class VPNModule extends ReactContextBaseJavaModule {
     private static final String MODULE_NAME = "VPNModule";
     private static final String TAG = "VPNModule";
+    // Longest a bridge call waits for the installed-apps index to finish its first build
+    private static final long INSTALLED_APPS_WAIT_MS = 5000;
     private ReactApplicationContext reactContext;
     private AppUsageMonitor appMonitor;
     private ScreenTimeTracker screenTimeTracker;
+    // Stats @ReactMethods run here, not on the native-modules thread; identical calls share one run
+    private final UsageQueryExecutor queryExecutor = new UsageQueryExecutor();
+    // Throttled "onUsageUpdate" pushes; idle while no screen is subscribed
+    private final UsageUpdateStream usageStream;
+    private final AppUsageMonitor.AppDetectionListener detectionListener = new AppUsageMonitor.AppDetectionListener() {
+        @Override
+        public void onAppDetected(String packageName, String appName) {
+            sendEvent("onAppDetected", createAppEvent(packageName, appName));
+        }
+
+        @Override
+        public void onBlockedAppOpened(String packageName, String appName) {
+            sendEvent("onBlockedAppOpened", createAppEvent(packageName, appName));
+        }
+    };
     
     public VPNModule(ReactApplicationContext reactContext) {
         super(reactContext);
         this.reactContext = reactContext;
-        this.appMonitor = new AppUsageMonitor(reactContext);
-        this.screenTimeTracker = new ScreenTimeTracker(reactContext);
+        // Shared engine: already holds the persisted blocklist, no separate load needed
+        this.appMonitor = AppUsageMonitor.getInstance(reactContext);
+        this.screenTimeTracker = new ScreenTimeTracker(appMonitor.getDailyCounter());
         Log.d(TAG, "[INIT] VPNModule initialized");
         
-        // CRITICAL FIX: Load blocked apps immediately when VPNModule is created
-        // This ensures appMonitor has blocked apps even before startMonitoring() is called
-        loadBlockedAppsIntoMonitor();
-        
         // Set up listener
-        appMonitor.setListener(new AppUsageMonitor.AppDetectionListener() {
-            @Override
-            public void onAppDetected(String packageName, String appName) {
-                sendEvent("onAppDetected", createAppEvent(packageName, appName));
-            }
-            
-            @Override
-            public void onBlockedAppOpened(String packageName, String appName) {
-                sendEvent("onBlockedAppOpened", createAppEvent(packageName, appName));
-            }
-        });
+        appMonitor.addListener(detectionListener);
+        this.usageStream = new UsageUpdateStream(appMonitor, batch -> sendEvent("onUsageUpdate", createUsageUpdateEvent(batch)));
     }
 
-    /**
-     * CRITICAL FIX: Helper method to load blocked apps from SharedPreferences into VPNModule's appMonitor
-     * 
-     * WHY THIS IS NEEDED:
-     * - VPNModule has its own AppUsageMonitor instance (separate from MyVpnService's instance)
-     * - When setBlockedApps() is called from React Native, it saves to SharedPreferences via SettingsModule
-     * - VPNModule's appMonitor needs to read those saved blocked apps to show overlays
-     * - Without this, VPNModule's monitor runs with an empty blocked apps list = no overlays!
-     * 
-     * CALLED FROM:
-     * - Constructor: Loads blocked apps when module is first created
-     * - startMonitoring(): Reloads to ensure we have the latest list before monitoring starts
-     */
-    private void loadBlockedAppsIntoMonitor() {
-        try {
-            // Same SharedPreferences file and key used by SettingsModule.java
-            SharedPreferences prefs = reactContext.getSharedPreferences("doomscroll_prefs", Context.MODE_PRIVATE);
-            Set<String> savedBlockedApps = prefs.getStringSet("blocked_apps", new HashSet<>());
-            
-            if (savedBlockedApps != null && !savedBlockedApps.isEmpty()) {
-                // IMPORTANT: Create a copy to avoid SharedPreferences mutation issues
-                // SharedPreferences.getStringSet() returns a reference that shouldn't be modified
-                Set<String> blockedAppsCopy = new HashSet<>(savedBlockedApps);
-                appMonitor.setBlockedApps(blockedAppsCopy);
-                Log.d(TAG, "[LOAD_BLOCKED] ✓ Loaded " + blockedAppsCopy.size() + " blocked apps into VPNModule's monitor");
-                Log.d(TAG, "[LOAD_BLOCKED] Blocked apps: " + blockedAppsCopy.toString());
-            } else {
-                Log.d(TAG, "[LOAD_BLOCKED] No saved blocked apps found in SharedPreferences (file: doomscroll_prefs, key: blocked_apps)");
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "[LOAD_BLOCKED] ERROR loading blocked apps: " + e.getMessage(), e);
-        }
+    @Override
+    public void invalidate() {
+        // The engine outlives this module (e.g. on JS reload); drop our listener with it
+        appMonitor.removeListener(detectionListener);
+        queryExecutor.shutdown();
+        usageStream.shutdown();
+        super.invalidate();
     }
 
     @Override
@@ -180,6 +162,23 @@ public class VPNModule extends ReactContextBaseJavaModule {
         openUsageAccessSettings();
     }
 
+    @ReactMethod
+    public void isAccessibilityDetectionEnabled(Promise promise) {
+        try {
+            promise.resolve(AppDetectionService.isConnected());
+        } catch (Exception e) {
+            promise.reject("PERMISSION_CHECK_ERROR", e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void openAccessibilitySettings() {
+        // AppDetectionService can only be enabled by the user from system settings
+        Intent intent = new Intent(Settings.ACTION_ACCESSIBILITY_SETTINGS);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        reactContext.startActivity(intent);
+    }
+
     @ReactMethod
     public void startMonitoring(Promise promise) {
         Log.d(TAG, "[START] ========== startMonitoring called ==========");
@@ -197,26 +196,15 @@ public class VPNModule extends ReactContextBaseJavaModule {
                 Log.d(TAG, "[START] Started service (API < O)");
             }
 
-            // STEP 2: CRITICAL FIX - Reload blocked apps from SharedPreferences before starting monitor
-            // This ensures VPNModule's appMonitor has the latest blocked apps list
-            Log.d(TAG, "[START] Step 2: Loading blocked apps into VPNModule's monitor...");
-            loadBlockedAppsIntoMonitor();
-            
-            // STEP 3: Log current state before starting
+            // STEP 2: Log current state of the shared engine
             Set<String> currentBlocked = appMonitor.getBlockedApps();
-            int blockedCount = (currentBlocked != null) ? currentBlocked.size() : 0;
-            Log.d(TAG, "[START] Step 3: VPNModule's monitor has " + blockedCount + " blocked apps");
-            if (currentBlocked != null && !currentBlocked.isEmpty()) {
-                Log.d(TAG, "[START] Blocked apps list: " + currentBlocked.toString());
-            } else {
+            Log.d(TAG, "[START] Step 2: Shared monitor has " + currentBlocked.size() + " blocked apps");
+            if (currentBlocked.isEmpty()) {
                 Log.w(TAG, "[START] WARNING: No blocked apps! Overlay will NOT show for any app!");
             }
 
-            // STEP 4: MyVpnService handles the monitoring loop
-            // VPNModule's appMonitor should NOT start monitoring to prevent double overlays
-            // Only MyVpnService's monitor instance should be active
-            Log.d(TAG, "[START] Step 4: MyVpnService will handle monitoring (VPNModule monitor stays idle)");
-            // REMOVED: appMonitor.startMonitoring(); // <- This caused double overlays!
+            // STEP 3: MyVpnService starts the shared engine's loop from onStartCommand
+            Log.d(TAG, "[START] Step 3: MyVpnService will start the shared monitor loop");
             
             Log.d(TAG, "[START] ========== startMonitoring complete ==========");
             promise.resolve(true);
@@ -226,24 +214,138 @@ public class VPNModule extends ReactContextBaseJavaModule {
         }
     }
     
+    // Scheduler state and wakeup counters of the running detection loop (for tracing battery use)
     @ReactMethod
-    public void getScreenTimeStats(Promise promise) {
+    public void getMonitorStats(Promise promise) {
         try {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1) {
-                Map<String, Long> stats = screenTimeTracker.getScreenTimeStats();
-                WritableMap result = Arguments.createMap();
-                result.putDouble("totalScreenTime", stats.get("totalScreenTime"));
-                result.putDouble("startTime", stats.get("startTime"));
-                result.putDouble("endTime", stats.get("endTime"));
-                promise.resolve(result);
-            } else {
-                promise.reject("UNSUPPORTED", "Screen time tracking requires API level 22 or higher");
+            WritableMap result = Arguments.createMap();
+            AppUsageMonitor active = AppUsageMonitor.getActiveMonitor();
+            result.putBoolean("running", active != null);
+            if (active != null) {
+                Map<String, Object> stats = active.getSchedulerStats();
+                result.putString("state", (String) stats.get("state"));
+                result.putDouble("wakeups", (Long) stats.get("wakeups"));
+                result.putDouble("transitions", (Long) stats.get("transitions"));
+                result.putDouble("lastDelayMs", (Long) stats.get("lastDelayMs"));
             }
+            Map<String, Object> labelStats = appMonitor.getLabelCache().getStats();
+            result.putInt("labelCacheSize", (Integer) labelStats.get("size"));
+            result.putDouble("labelCacheHitRate", (Double) labelStats.get("hitRate"));
+            Map<String, Object> usageStats = appMonitor.getUsageCache().getStats();
+            result.putInt("usageCacheBuckets", (Integer) usageStats.get("buckets"));
+            result.putDouble("usageCacheRequests", (Long) usageStats.get("requests"));
+            result.putDouble("usageCacheQueries", (Long) usageStats.get("queries"));
+            Map<String, Object> rollupStats = appMonitor.getUsageRollups().getStats();
+            result.putInt("rollupWeekPeriods", (Integer) rollupStats.get("weekPeriods"));
+            result.putDouble("rollupRecordsRead", (Long) rollupStats.get("recordsRead"));
+            result.putDouble("rollupMinuteFallbacks", (Long) rollupStats.get("minuteFallbacks"));
+            Map<String, Object> iconStats = appMonitor.getIconCache().getStats();
+            result.putInt("iconCacheBytes", (Integer) iconStats.get("memoryBytes"));
+            result.putDouble("iconRenders", (Long) iconStats.get("renders"));
+            result.putDouble("iconDiskLoads", (Long) iconStats.get("diskLoads"));
+            Map<String, Object> journalStats = appMonitor.getSessionJournalStats();
+            result.putDouble("sessionRestoreMicros", (Long) journalStats.get("restoreMicros"));
+            result.putDouble("sessionJournalWrites", (Long) journalStats.get("writes"));
+            Map<String, Object> queryStats = queryExecutor.getStats();
+            result.putDouble("queriesSubmitted", (Long) queryStats.get("submitted"));
+            result.putDouble("queriesCoalesced", (Long) queryStats.get("coalesced"));
+            result.putDouble("queriesTimedOut", (Long) queryStats.get("timedOut"));
+            result.putDouble("queriesRejected", (Long) queryStats.get("rejected"));
+            promise.resolve(result);
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting monitor stats", e);
+            promise.reject("MONITOR_STATS_ERROR", e.getMessage());
+        }
+    }
+
+    // Per-app popup session state (open/first popup/cooldown/allowed), for debugging
+    @ReactMethod
+    public void getSessionSnapshot(Promise promise) {
+        try {
+            WritableArray rows = Arguments.createArray();
+            for (Map<String, Object> row : appMonitor.getSessionSnapshot(500)) {
+                WritableMap map = Arguments.createMap();
+                map.putString("packageName", (String) row.get("packageName"));
+                map.putDouble("openTs", (Long) row.get("openTs"));
+                map.putDouble("firstPopupTs", (Long) row.get("firstPopupTs"));
+                map.putDouble("cooldownTs", (Long) row.get("cooldownTs"));
+                map.putBoolean("allowed", (Boolean) row.get("allowed"));
+                rows.pushMap(map);
+            }
+            promise.resolve(rows);
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting session snapshot", e);
+            promise.reject("SESSION_SNAPSHOT_ERROR", e.getMessage());
+        }
+    }
+
+    /**
+     * subscribeUsageUpdates - start receiving "onUsageUpdate" events at most every intervalMs
+     *
+     * Resolves a subscription id for unsubscribeUsageUpdates. Each event carries only what
+     * changed since the previous one (app switches, per-app today totals, interventions).
+     */
+    @ReactMethod
+    public void subscribeUsageUpdates(double intervalMs, Promise promise) {
+        try {
+            promise.resolve(usageStream.subscribe((long) intervalMs));
         } catch (Exception e) {
-            Log.e("VPNModule", "Error getting screen time stats", e);
-            promise.reject("ERROR", "Failed to get screen time stats: " + e.getMessage());
+            Log.e(TAG, "Error subscribing to usage updates", e);
+            promise.reject("SUBSCRIBE_ERROR", e.getMessage());
         }
     }
+
+    @ReactMethod
+    public void unsubscribeUsageUpdates(int subscriptionId) {
+        usageStream.unsubscribe(subscriptionId);
+    }
+
+    // Required by NativeEventEmitter; subscriptions are managed explicitly above
+    @ReactMethod
+    public void addListener(String eventName) {
+    }
+
+    @ReactMethod
+    public void removeListeners(double count) {
+    }
+
+    // Detection trace (oldest first); formatting happens only here, never per tick
+    @ReactMethod
+    public void dumpTrace(Promise promise) {
+        try {
+            WritableArray lines = Arguments.createArray();
+            for (String line : TraceBuffer.dumpLines()) {
+                lines.pushString(line);
+            }
+            promise.resolve(lines);
+        } catch (Exception e) {
+            Log.e(TAG, "Error dumping trace", e);
+            promise.reject("TRACE_ERROR", e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void setTracingEnabled(boolean enabled) {
+        TraceBuffer.setEnabled(enabled);
+        Log.d(TAG, "[TRACE] tracing " + (enabled ? "enabled" : "disabled"));
+    }
+
+    @ReactMethod
+    public void getScreenTimeStats(Promise promise) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP_MR1) {
+            promise.reject("UNSUPPORTED", "Screen time tracking requires API level 22 or higher");
+            return;
+        }
+        queryExecutor.submit("getScreenTimeStats", "ERROR",
+                () -> screenTimeTracker.getScreenTimeStats(),
+                stats -> {
+                    WritableMap result = Arguments.createMap();
+                    result.putDouble("totalScreenTime", stats.get("totalScreenTime"));
+                    result.putDouble("startTime", stats.get("startTime"));
+                    result.putDouble("endTime", stats.get("endTime"));
+                    return result;
+                }, promise);
+    }
     
     @ReactMethod
     public void stopMonitoring(Promise promise) {
@@ -266,111 +368,170 @@ public class VPNModule extends ReactContextBaseJavaModule {
     // New methods for getting app usage statistics
     @ReactMethod
     public void getAppUsageTime(String packageName, double startTime, double endTime, Promise promise) {
-        try {
-            long startTimeLong = (long) startTime;
-            long endTimeLong = (long) endTime;
-            long usageTime = appMonitor.getAppUsageTime(packageName, startTimeLong, endTimeLong);
-            promise.resolve(usageTime);
-        } catch (Exception e) {
-            Log.e("VPNModule", "Error getting app usage time", e);
-            promise.reject("USAGE_STATS_ERROR", e.getMessage());
-        }
+        long startTimeLong = (long) startTime;
+        long endTimeLong = (long) endTime;
+        queryExecutor.submit("getAppUsageTime:" + packageName + ":" + startTimeLong + ":" + endTimeLong,
+                "USAGE_STATS_ERROR",
+                () -> appMonitor.getAppUsageTime(packageName, startTimeLong, endTimeLong),
+                usageTime -> usageTime, promise);
     }
     
     @ReactMethod
     public void getTotalScreenTime(double startTime, double endTime, Promise promise) {
-        try {
-            long startTimeLong = (long) startTime;
-            long endTimeLong = (long) endTime;
-            long totalTime = appMonitor.getTotalScreenTime(startTimeLong, endTimeLong);
-            promise.resolve(totalTime);
-        } catch (Exception e) {
-            Log.e("VPNModule", "Error getting total screen time", e);
-            promise.reject("USAGE_STATS_ERROR", e.getMessage());
-        }
+        long startTimeLong = (long) startTime;
+        long endTimeLong = (long) endTime;
+        queryExecutor.submit("getTotalScreenTime:" + startTimeLong + ":" + endTimeLong, "USAGE_STATS_ERROR",
+                () -> appMonitor.getTotalScreenTime(startTimeLong, endTimeLong),
+                totalTime -> totalTime, promise);
     }
     
     @ReactMethod
     public void getTodayScreenTime(Promise promise) {
-        try {
-            long todayTime = appMonitor.getTodayScreenTime();
-            promise.resolve(todayTime);
-        } catch (Exception e) {
-            Log.e("VPNModule", "Error getting today's screen time", e);
-            promise.reject("USAGE_STATS_ERROR", e.getMessage());
-        }
+        queryExecutor.submit("getTodayScreenTime", "USAGE_STATS_ERROR",
+                () -> appMonitor.getTodayScreenTime(),
+                todayTime -> todayTime, promise);
     }
     
     @ReactMethod
     public void getAppTodayUsageTime(String packageName, Promise promise) {
-        try {
-            long usageTime = appMonitor.getAppTodayUsageTime(packageName);
-            promise.resolve(usageTime);
-        } catch (Exception e) {
-            Log.e("VPNModule", "Error getting app's today usage time", e);
-            promise.reject("USAGE_STATS_ERROR", e.getMessage());
-        }
+        queryExecutor.submit("getAppTodayUsageTime:" + packageName, "USAGE_STATS_ERROR",
+                () -> appMonitor.getAppTodayUsageTime(packageName),
+                usageTime -> usageTime, promise);
     }
     
     @ReactMethod
     public void getTopAppsByUsage(double startTime, double endTime, int limit, Promise promise) {
-        try {
-            long startTimeLong = (long) startTime;
-            long endTimeLong = (long) endTime;
-            List<AppUsageMonitor.AppUsageInfo> topApps = appMonitor.getTopAppsByUsage(startTimeLong, endTimeLong, limit);
-            
-            WritableArray appArray = Arguments.createArray();
-            for (AppUsageMonitor.AppUsageInfo appInfo : topApps) {
-                WritableMap appMap = Arguments.createMap();
-                appMap.putString("packageName", appInfo.packageName);
-                appMap.putString("appName", appInfo.appName);
-                appMap.putDouble("usageTime", appInfo.usageTime);
-                appArray.pushMap(appMap);
-            }
-            
-            promise.resolve(appArray);
-        } catch (Exception e) {
-            Log.e("VPNModule", "Error getting top apps by usage", e);
-            promise.reject("USAGE_STATS_ERROR", e.getMessage());
-        }
+        long startTimeLong = (long) startTime;
+        long endTimeLong = (long) endTime;
+        queryExecutor.submit("getTopAppsByUsage:" + startTimeLong + ":" + endTimeLong + ":" + limit,
+                "USAGE_STATS_ERROR",
+                () -> appMonitor.getTopAppsByUsage(startTimeLong, endTimeLong, limit),
+                topApps -> {
+                    WritableArray appArray = Arguments.createArray();
+                    for (AppUsageMonitor.AppUsageInfo appInfo : topApps) {
+                        WritableMap appMap = Arguments.createMap();
+                        appMap.putString("packageName", appInfo.packageName);
+                        appMap.putString("appName", appInfo.appName);
+                        appMap.putDouble("usageTime", appInfo.usageTime);
+                        appArray.pushMap(appMap);
+                    }
+                    return appArray;
+                }, promise);
     }
     
+    // Locally recorded per-day usage (survives the OS retention window); one entry per day with data
     @ReactMethod
-    public void getBlockedAppsUsageStats(Promise promise) {
+    public void getUsageHistory(double startTime, double endTime, Promise promise) {
+        getUsageSeries(startTime, endTime, "day", promise);
+    }
+
+    // Local history per hour/day/week ("hour" | "day" | "week"), read from the rollup tiers;
+    // one entry per period with data: {periodStart, periodEnd, dayStart, totalTime, apps}
+    @ReactMethod
+    public void getUsageSeries(double startTime, double endTime, String resolution, Promise promise) {
+        long startTimeLong = (long) startTime;
+        long endTimeLong = (long) endTime;
+        UsageRollupStore.Resolution tier = "hour".equals(resolution) ? UsageRollupStore.Resolution.HOUR
+                : "week".equals(resolution) ? UsageRollupStore.Resolution.WEEK : UsageRollupStore.Resolution.DAY;
+        queryExecutor.submit("getUsageSeries:" + startTimeLong + ":" + endTimeLong + ":" + tier, "USAGE_HISTORY_ERROR",
+                () -> appMonitor.getUsageRollups().getSeries(startTimeLong, endTimeLong, tier),
+                periods -> {
+                    WritableArray result = Arguments.createArray();
+                    for (UsageRollupStore.Period period : periods) {
+                        long total = 0;
+                        WritableArray apps = Arguments.createArray();
+                        for (Map.Entry<String, Long> app : period.totals.entrySet()) {
+                            WritableMap appMap = Arguments.createMap();
+                            appMap.putString("packageName", app.getKey());
+                            appMap.putString("appName", appMonitor.getAppName(app.getKey()));
+                            appMap.putDouble("usageTime", app.getValue());
+                            apps.pushMap(appMap);
+                            total += app.getValue();
+                        }
+                        WritableMap periodMap = Arguments.createMap();
+                        periodMap.putDouble("periodStart", period.start);
+                        periodMap.putDouble("periodEnd", period.end);
+                        // Kept for getUsageHistory callers
+                        periodMap.putDouble("dayStart", period.start);
+                        periodMap.putDouble("totalTime", total);
+                        periodMap.putArray("apps", apps);
+                        result.pushMap(periodMap);
+                    }
+                    return result;
+                }, promise);
+    }
+
+    // Like getTopAppsByUsage, but from local history: long ranges read week/day rollups
+    @ReactMethod
+    public void getTopAppsFromHistory(double startTime, double endTime, int limit, Promise promise) {
+        long startTimeLong = (long) startTime;
+        long endTimeLong = (long) endTime;
+        queryExecutor.submit("getTopAppsFromHistory:" + startTimeLong + ":" + endTimeLong + ":" + limit,
+                "USAGE_HISTORY_ERROR",
+                () -> {
+                    List<Map.Entry<String, Long>> apps = new ArrayList<>(
+                            appMonitor.getUsageRollups().getTotals(startTimeLong, endTimeLong).entrySet());
+                    apps.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+                    return limit > 0 && apps.size() > limit ? apps.subList(0, limit) : apps;
+                },
+                apps -> {
+                    WritableArray appArray = Arguments.createArray();
+                    for (Map.Entry<String, Long> app : apps) {
+                        WritableMap appMap = Arguments.createMap();
+                        appMap.putString("packageName", app.getKey());
+                        appMap.putString("appName", appMonitor.getAppName(app.getKey()));
+                        appMap.putDouble("usageTime", app.getValue());
+                        appArray.pushMap(appMap);
+                    }
+                    return appArray;
+                }, promise);
+    }
+
+    // Retention of fine-grained history; older data survives only in coarser rollups
+    @ReactMethod
+    public void setUsageRetention(double minuteDays, double hourDays, double dayDays, Promise promise) {
+        if (minuteDays < 0 || hourDays < 0 || dayDays < 0) {
+            promise.reject("RETENTION_ERROR", "Retention must not be negative");
+            return;
+        }
         try {
-            // Get usage stats for all blocked apps
-            Set<String> blockedApps = appMonitor.getBlockedApps();
-            WritableArray blockedAppsStats = Arguments.createArray();
-            
-            long endTime = System.currentTimeMillis();
-            long startTime = endTime - (24 * 60 * 60 * 1000); // Last 24 hours
-            
-            for (String packageName : blockedApps) {
-                long usageTime = appMonitor.getAppUsageTime(packageName, startTime, endTime);
-                if (usageTime > 0) {
-                    WritableMap appStats = Arguments.createMap();
-                    appStats.putString("packageName", packageName);
-                    appStats.putString("appName", appMonitor.getAppName(packageName));
-                    appStats.putDouble("usageTime", usageTime);
-                    blockedAppsStats.pushMap(appStats);
-                }
-            }
-            
-            promise.resolve(blockedAppsStats);
+            long day = 24L * 60 * 60 * 1000;
+            long version = appMonitor.setRetentionPolicy(new UsageRollupStore.RetentionPolicy(
+                    (long) (minuteDays * day), (long) (hourDays * day), (long) (dayDays * day)));
+            promise.resolve((double) version);
         } catch (Exception e) {
-            Log.e("VPNModule", "Error getting blocked apps usage stats", e);
-            promise.reject("USAGE_STATS_ERROR", e.getMessage());
+            promise.reject("RETENTION_ERROR", e.getMessage());
         }
     }
+
+    @ReactMethod
+    public void getBlockedAppsUsageStats(Promise promise) {
+        queryExecutor.submit("getBlockedAppsUsageStats", "USAGE_STATS_ERROR",
+                () -> {
+                    // Usage stats for all blocked apps in one query and one pass
+                    long endTime = System.currentTimeMillis();
+                    long startTime = endTime - (24 * 60 * 60 * 1000); // Last 24 hours
+                    return appMonitor.getUsageReport(appMonitor.getBlockedApps(), startTime, endTime);
+                },
+                report -> {
+                    WritableArray blockedAppsStats = Arguments.createArray();
+                    for (AppUsageMonitor.AppUsageInfo info : report) {
+                        WritableMap appStats = Arguments.createMap();
+                        appStats.putString("packageName", info.packageName);
+                        appStats.putString("appName", info.appName);
+                        appStats.putDouble("usageTime", info.usageTime);
+                        appStats.putInt("launchCount", info.launchCount);
+                        blockedAppsStats.pushMap(appStats);
+                    }
+                    return blockedAppsStats;
+                }, promise);
+    }
     
     /**
      * setBlockedApps - Called from React Native (Customize screen) when user toggles apps
      * 
-     * CRITICAL: This method must update TWO places:
-     * 1. VPNModule's own appMonitor instance (for overlay detection)
-     * 2. MyVpnService's appMonitor instance (via Intent)
-     * 
-     * Previous bug: Only updated MyVpnService, leaving VPNModule's monitor empty!
+     * Updates the shared engine in-process and persists the list so the service
+     * restores it after a restart. No Intent to MyVpnService is needed.
      */
     @ReactMethod
     public void setBlockedApps(ReadableArray apps, Promise promise) {
@@ -385,7 +546,6 @@ public class VPNModule extends ReactContextBaseJavaModule {
                     String single = apps.getString(0);
                     if (single != null && single.contains(".")) {
                         blockedApps.add(single);
-                        Log.d(TAG, "[SET_BLOCKED] Added single app: " + single);
                     }
                 } else {
                     // ✅ Normal case: proper array of strings
@@ -393,35 +553,19 @@ public class VPNModule extends ReactContextBaseJavaModule {
                         if (apps.getType(i) == com.facebook.react.bridge.ReadableType.String) {
                             String app = apps.getString(i);
                             blockedApps.add(app);
-                            Log.d(TAG, "[SET_BLOCKED] Added app: " + app);
                         }
                     }
                 }
             }
             
             Log.d(TAG, "[SET_BLOCKED] Total blocked apps parsed: " + blockedApps.size());
-            Log.d(TAG, "[SET_BLOCKED] Blocked apps: " + blockedApps.toString());
-
-            // CRITICAL FIX #1: Update VPNModule's OWN appMonitor instance
-            // Without this line, VPNModule's monitor has NO blocked apps and overlay never shows!
-            appMonitor.setBlockedApps(blockedApps);
-            Log.d(TAG, "[SET_BLOCKED] ✓ Updated VPNModule's appMonitor with " + blockedApps.size() + " apps");
-    
-            // CRITICAL FIX #2: Also send intent to MyVpnService to update ITS monitor
-            // The service has its own AppUsageMonitor instance that also needs updating
-            Intent intent = new Intent(reactContext, MyVpnService.class);
-            intent.setAction("UPDATE_BLOCKED_APPS");
-            intent.putStringArrayListExtra("blockedApps", new ArrayList<>(blockedApps));
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                reactContext.startForegroundService(intent);
-            } else {
-                reactContext.startService(intent);
-            }
-            Log.d(TAG, "[SET_BLOCKED] ✓ Sent UPDATE_BLOCKED_APPS intent to MyVpnService");
+            // Single shared engine: persisted and published on the config bus in-process
+            long version = appMonitor.saveBlockedApps(blockedApps);
+            Log.d(TAG, "[SET_BLOCKED] ✓ Published " + blockedApps.size() + " apps as config version " + version);
             
             Log.d(TAG, "[SET_BLOCKED] ========== setBlockedApps complete ==========");
-            promise.resolve(true);
+            promise.resolve((double) version);
         } catch (Exception e) {
             Log.e(TAG, "[SET_BLOCKED] ERROR: " + e.getMessage(), e);
             promise.reject("SET_APPS_ERROR", e.getMessage());
@@ -459,32 +603,108 @@ public class VPNModule extends ReactContextBaseJavaModule {
     
     @ReactMethod
     public void getInstalledApps(Promise promise) {
-        try {
-            Log.d("VPNModule", "getInstalledApps");
-            WritableArray apps = Arguments.createArray();
-            
-            // Get list of installed apps
-            android.content.pm.PackageManager pm = reactContext.getPackageManager();
-            List<android.content.pm.ApplicationInfo> packages = pm.getInstalledApplications(
-                android.content.pm.PackageManager.GET_META_DATA
-            );
-            
-            for (android.content.pm.ApplicationInfo packageInfo : packages) {
-                // Filter out system apps
-                if ((packageInfo.flags & android.content.pm.ApplicationInfo.FLAG_SYSTEM) == 0) {
-                    WritableMap app = Arguments.createMap();
-                    app.putString("packageName", packageInfo.packageName);
-                    app.putString("appName", pm.getApplicationLabel(packageInfo).toString());
-                    apps.pushMap(app);
-                }
-            }
-            
-            Log.d("VPNModule", "getInstalledApps success, resolving promise");
-            promise.resolve(apps);
-        } catch (Exception e) {
-            Log.d("VPNModule", "getInstalledApps failed, rejecting promise");
-            promise.reject("GET_APPS_ERROR", e.getMessage());
+        Log.d("VPNModule", "getInstalledApps");
+        // Served from the incrementally maintained index; only the first call after
+        // startup may wait for its initial build
+        queryExecutor.submit("getInstalledApps", "GET_APPS_ERROR",
+                () -> {
+                    List<InstalledAppsIndex.Entry> apps =
+                            appMonitor.getInstalledApps().awaitSnapshot(INSTALLED_APPS_WAIT_MS);
+                    if (apps == null) {
+                        throw indexBuilding();
+                    }
+                    return apps;
+                },
+                apps -> {
+                    WritableArray result = Arguments.createArray();
+                    for (InstalledAppsIndex.Entry entry : apps) {
+                        result.pushMap(createInstalledAppMap(entry));
+                    }
+                    return result;
+                }, promise);
+    }
+
+    // sortBy: "name" (default) or "usage" (foreground time over the last 7 days, descending)
+    @ReactMethod
+    public void getInstalledAppsPage(double offset, double limit, String sortBy, Promise promise) {
+        String sort = InstalledAppsIndex.SORT_USAGE.equals(sortBy)
+                ? InstalledAppsIndex.SORT_USAGE : InstalledAppsIndex.SORT_NAME;
+        InstalledAppsIndex index = appMonitor.getInstalledApps();
+        queryExecutor.submit("getInstalledAppsPage:" + (int) offset + ":" + (int) limit + ":" + sort
+                        + ":" + index.getVersion(), "GET_APPS_ERROR",
+                () -> {
+                    Map<String, Long> usage = null;
+                    if (InstalledAppsIndex.SORT_USAGE.equals(sort)) {
+                        long now = System.currentTimeMillis();
+                        usage = appMonitor.getUsageCache().getTotals(now - 7L * 24 * 60 * 60 * 1000, now);
+                    }
+                    InstalledAppsIndex.Page page =
+                            index.getPage((int) offset, (int) limit, sort, usage, INSTALLED_APPS_WAIT_MS);
+                    if (page == null) {
+                        throw indexBuilding();
+                    }
+                    return page;
+                },
+                page -> {
+                    WritableArray apps = Arguments.createArray();
+                    for (InstalledAppsIndex.Entry entry : page.apps) {
+                        apps.pushMap(createInstalledAppMap(entry));
+                    }
+                    WritableMap result = Arguments.createMap();
+                    result.putArray("apps", apps);
+                    result.putInt("total", page.total);
+                    result.putInt("offset", page.offset);
+                    result.putDouble("version", page.version);
+                    return result;
+                }, promise);
+    }
+
+    // Icon as a PNG data URI rendered at sizePx; null if the package is gone
+    @ReactMethod
+    public void getAppIcon(String packageName, double sizePx, Promise promise) {
+        queryExecutor.submit("getAppIcon:" + packageName + ":" + (int) sizePx, "GET_ICON_ERROR",
+                () -> appMonitor.getIconCache().getIconDataUri(packageName, (int) sizePx),
+                uri -> uri, promise);
+    }
+
+    // Icons for the rows a list is about to show, as packageName -> data URI
+    @ReactMethod
+    public void getAppIcons(ReadableArray packageNames, double sizePx, Promise promise) {
+        List<String> packages = new ArrayList<>();
+        for (int i = 0; i < packageNames.size(); i++) {
+            packages.add(packageNames.getString(i));
         }
+        queryExecutor.submit("getAppIcons:" + packages + ":" + (int) sizePx, "GET_ICON_ERROR",
+                () -> {
+                    Map<String, String> icons = new LinkedHashMap<>();
+                    for (String packageName : packages) {
+                        String uri = appMonitor.getIconCache().getIconDataUri(packageName, (int) sizePx);
+                        if (uri != null) {
+                            icons.put(packageName, uri);
+                        }
+                    }
+                    return icons;
+                },
+                icons -> {
+                    WritableMap result = Arguments.createMap();
+                    for (Map.Entry<String, String> entry : icons.entrySet()) {
+                        result.putString(entry.getKey(), entry.getValue());
+                    }
+                    return result;
+                }, promise);
+    }
+
+    // The first index build is still running; JS retries
+    private static UsageQueryExecutor.QueryException indexBuilding() {
+        return new UsageQueryExecutor.QueryException("APPS_INDEX_BUILDING",
+                "Installed apps are still being indexed");
+    }
+
+    private WritableMap createInstalledAppMap(InstalledAppsIndex.Entry entry) {
+        WritableMap app = Arguments.createMap();
+        app.putString("packageName", entry.packageName);
+        app.putString("appName", entry.appName);
+        return app;
     }
     
     // VPN related methods (optional - you can remove these if not using VPN)
@@ -542,6 +762,30 @@ public class VPNModule extends ReactContextBaseJavaModule {
         }
     }
 
+    private WritableMap createUsageUpdateEvent(UsageUpdateStream.Batch batch) {
+        WritableArray changes = Arguments.createArray();
+        for (UsageUpdateStream.ForegroundChange change : batch.foregroundChanges) {
+            WritableMap map = createAppEvent(change.packageName, change.appName);
+            map.putDouble("timestamp", change.timestamp);
+            changes.pushMap(map);
+        }
+        WritableArray totals = Arguments.createArray();
+        for (Map.Entry<String, Long> entry : batch.changedTotals.entrySet()) {
+            WritableMap map = Arguments.createMap();
+            map.putString("packageName", entry.getKey());
+            map.putDouble("usageTime", entry.getValue());
+            totals.pushMap(map);
+        }
+        WritableMap event = Arguments.createMap();
+        event.putArray("foregroundChanges", changes);
+        event.putArray("totals", totals);
+        event.putDouble("todayTotal", batch.todayTotal);
+        event.putDouble("interventions", batch.interventions);
+        event.putDouble("interventionsDelta", batch.interventionsDelta);
+        event.putDouble("timestamp", batch.timestamp);
+        return event;
+    }
+
     private WritableMap createAppEvent(String packageName, String appName) {
         WritableMap event = Arguments.createMap();
         event.putString("packageName", packageName);
@@ -560,6 +804,73 @@ public class VPNModule extends ReactContextBaseJavaModule {
     }
 
 
+    /**
+     * addBlockedApps / removeBlockedApps - Per-toggle deltas against the versioned blocklist.
+     * expectedVersion is the blocklist version JS last saw (-1 to skip the check). Resolves
+     * {version, configVersion}; on a version mismatch rejects with BLOCKLIST_CONFLICT and
+     * userInfo {version, blockedApps} so JS can rebase its copy and retry.
+     */
+    @ReactMethod
+    public void addBlockedApps(ReadableArray apps, double expectedVersion, Promise promise) {
+        updateBlocklist(readPackages(apps), Collections.emptyList(), (long) expectedVersion, promise);
+    }
+
+    @ReactMethod
+    public void removeBlockedApps(ReadableArray apps, double expectedVersion, Promise promise) {
+        updateBlocklist(Collections.emptyList(), readPackages(apps), (long) expectedVersion, promise);
+    }
+
+    // Current blocked apps with the version to pass as expectedVersion
+    @ReactMethod
+    public void getBlocklist(Promise promise) {
+        try {
+            promise.resolve(createBlocklistMap(appMonitor.getSettings()));
+        } catch (Exception e) {
+            promise.reject("BLOCKLIST_ERROR", e.getMessage());
+        }
+    }
+
+    private void updateBlocklist(List<String> add, List<String> remove, long expectedVersion, Promise promise) {
+        try {
+            SettingsStore.Settings settings = appMonitor.updateBlockedApps(expectedVersion, add, remove);
+            Log.d(TAG, "[BLOCKLIST] +" + add.size() + " -" + remove.size() + " -> version "
+                    + settings.blocklistVersion);
+            WritableMap result = Arguments.createMap();
+            result.putDouble("version", settings.blocklistVersion);
+            result.putDouble("configVersion", settings.revision);
+            promise.resolve(result);
+        } catch (SettingsStore.VersionConflictException e) {
+            Log.d(TAG, "[BLOCKLIST] " + e.getMessage());
+            promise.reject("BLOCKLIST_CONFLICT", e.getMessage(), createBlocklistMap(e.current));
+        } catch (Exception e) {
+            Log.e(TAG, "[BLOCKLIST] update failed", e);
+            promise.reject("SET_APPS_ERROR", e.getMessage());
+        }
+    }
+
+    private static List<String> readPackages(ReadableArray apps) {
+        List<String> packages = new ArrayList<>();
+        if (apps != null) {
+            for (int i = 0; i < apps.size(); i++) {
+                if (apps.getType(i) == ReadableType.String) {
+                    packages.add(apps.getString(i));
+                }
+            }
+        }
+        return packages;
+    }
+
+    private static WritableMap createBlocklistMap(SettingsStore.Settings settings) {
+        WritableArray apps = Arguments.createArray();
+        for (String app : settings.blockedApps) {
+            apps.pushString(app);
+        }
+        WritableMap map = Arguments.createMap();
+        map.putDouble("version", settings.blocklistVersion);
+        map.putArray("blockedApps", apps);
+        return map;
+    }
+    
     @ReactMethod
     public void checkPermissions(Promise promise) {
         WritableMap result = Arguments.createMap();
@@ -568,22 +879,104 @@ public class VPNModule extends ReactContextBaseJavaModule {
         promise.resolve(result);
     }
     
+    /**
+     * applyConfig - Saves any of {blockedApps, delayMessage, delaySeconds, popupDelayMinutes,
+     * monitoringEnabled} in one transaction and resolves with the new config version.
+     * Everything is validated before anything is applied; an invalid field rejects the
+     * whole call with CONFIG_INVALID. Omitted fields keep their current values.
+     */
+    @ReactMethod
+    public void applyConfig(ReadableMap config, Promise promise) {
+        try {
+            Set<String> blockedApps = null;
+            if (config.hasKey("blockedApps")) {
+                if (config.getType("blockedApps") != ReadableType.Array) {
+                    throw new IllegalArgumentException("blockedApps must be an array of package names");
+                }
+                ReadableArray apps = config.getArray("blockedApps");
+                blockedApps = new HashSet<>();
+                for (int i = 0; i < apps.size(); i++) {
+                    if (apps.getType(i) != ReadableType.String || apps.getString(i).isEmpty()) {
+                        throw new IllegalArgumentException("blockedApps[" + i + "] is not a package name");
+                    }
+                    blockedApps.add(apps.getString(i));
+                }
+            }
+            String message = null;
+            if (config.hasKey("delayMessage")) {
+                if (config.getType("delayMessage") != ReadableType.String
+                        || config.getString("delayMessage").trim().isEmpty()) {
+                    throw new IllegalArgumentException("delayMessage must be a non-empty string");
+                }
+                message = config.getString("delayMessage");
+            }
+            Integer delaySeconds = readInt(config, "delaySeconds",
+                    AppUsageMonitor.MIN_DELAY_SECONDS, AppUsageMonitor.MAX_DELAY_SECONDS);
+            Integer popupDelayMinutes = readInt(config, "popupDelayMinutes",
+                    0, AppUsageMonitor.MAX_POPUP_DELAY_MINUTES);
+            Boolean monitoringEnabled = null;
+            if (config.hasKey("monitoringEnabled")) {
+                if (config.getType("monitoringEnabled") != ReadableType.Boolean) {
+                    throw new IllegalArgumentException("monitoringEnabled must be a boolean");
+                }
+                monitoringEnabled = config.getBoolean("monitoringEnabled");
+            }
+
+            Set<String> newBlockedApps = blockedApps;
+            String newMessage = message;
+            Boolean newMonitoringEnabled = monitoringEnabled;
+            long version = appMonitor.applyConfig(settings -> {
+                if (newBlockedApps != null) {
+                    settings.setBlockedApps(newBlockedApps);
+                }
+                if (newMessage != null) {
+                    settings.setDelayMessage(newMessage);
+                }
+                if (delaySeconds != null) {
+                    settings.setDelaySeconds(delaySeconds);
+                }
+                if (popupDelayMinutes != null) {
+                    settings.setPopupDelayMinutes(popupDelayMinutes);
+                }
+                if (newMonitoringEnabled != null) {
+                    settings.setMonitoringEnabled(newMonitoringEnabled);
+                }
+            });
+            Log.d(TAG, "[APPLY_CONFIG] version=" + version);
+            promise.resolve((double) version);
+        } catch (IllegalArgumentException e) {
+            promise.reject("CONFIG_INVALID", e.getMessage());
+        } catch (Exception e) {
+            Log.e(TAG, "[APPLY_CONFIG] Failed to apply config", e);
+            promise.reject("CONFIG_ERROR", e.getMessage());
+        }
+    }
+
+    // Optional whole number in [min, max]; null when absent
+    private static Integer readInt(ReadableMap config, String key, int min, int max) {
+        if (!config.hasKey(key)) {
+            return null;
+        }
+        if (config.getType(key) != ReadableType.Number) {
+            throw new IllegalArgumentException(key + " must be a number");
+        }
+        double value = config.getDouble(key);
+        if (value != Math.floor(value) || value < min || value > max) {
+            throw new IllegalArgumentException(key + " must be a whole number from " + min + " to " + max);
+        }
+        return (int) value;
+    }
+
     @ReactMethod
     public void setDelayMessage(String message, Promise promise) {
         try {
             Log.d(TAG, "[SET_MESSAGE] Setting delay message: " + message);
             
-            // Update VPNModule's appMonitor
-            appMonitor.setDelayMessage(message);
-            
-            // Also send to MyVpnService via Intent
-            Intent serviceIntent = new Intent(reactContext, MyVpnService.class);
-            serviceIntent.setAction("SET_DELAY_MESSAGE");
-            serviceIntent.putExtra("message", message);
-            reactContext.startService(serviceIntent);
+            // Shared engine picks it up in-process; resolves with the config version
+            long version = appMonitor.setDelayMessage(message);
             
             Log.d(TAG, "[SET_MESSAGE] Message updated successfully");
-            promise.resolve(true);
+            promise.resolve((double) version);
         } catch (Exception e) {
             Log.e(TAG, "[SET_MESSAGE] Failed to set message", e);
             promise.reject("SET_MESSAGE_ERROR", e.getMessage());
@@ -595,17 +988,11 @@ public class VPNModule extends ReactContextBaseJavaModule {
         try {
             Log.d(TAG, "[SET_MESSAGE] Setting delay timer to " + seconds + " seconds");
             
-            // Update VPNModule's appMonitor
-            appMonitor.setDelayTime(seconds);
-            
-            // Also send to MyVpnService via Intent
-            Intent serviceIntent = new Intent(reactContext, MyVpnService.class);
-            serviceIntent.setAction("SET_DELAY_TIME");
-            serviceIntent.putExtra("seconds", seconds);
-            reactContext.startService(serviceIntent);
+            // Shared engine picks it up in-process; resolves with the config version
+            long version = appMonitor.setDelayTime(seconds);
             
             Log.d(TAG, "[SET_MESSAGE] Message updated successfully");
-            promise.resolve(true);
+            promise.resolve((double) version);
         } catch (Exception e) {
             Log.e(TAG, "[SET_MESSAGE] Failed to set message", e);
             promise.reject("SET_MESSAGE_ERROR", e.getMessage());
@@ -617,23 +1004,60 @@ public class VPNModule extends ReactContextBaseJavaModule {
         try {
             Log.d(TAG, "[SET_POPUP_DELAY] Setting popup delay to " + minutes + " minutes");
             
-            // Update VPNModule's appMonitor
-            appMonitor.setPopupDelayMinutes(minutes);
-            
-            // Also send to MyVpnService via Intent
-            Intent serviceIntent = new Intent(reactContext, MyVpnService.class);
-            serviceIntent.setAction("SET_POPUP_DELAY");
-            serviceIntent.putExtra("minutes", minutes);
-            reactContext.startService(serviceIntent);
+            // Shared engine picks it up in-process; resolves with the config version
+            long version = appMonitor.setPopupDelayMinutes(minutes);
             
             Log.d(TAG, "[SET_POPUP_DELAY] Popup delay updated successfully");
-            promise.resolve(true);
+            promise.resolve((double) version);
         } catch (Exception e) {
             Log.e(TAG, "[SET_POPUP_DELAY] Failed to set popup delay", e);
             promise.reject("SET_POPUP_DELAY_ERROR", e.getMessage());
         }
     }
 
+    // {version: latest published, appliedVersion: in effect in the engine, apply latency}
+    @ReactMethod
+    public void getConfigVersion(Promise promise) {
+        try {
+            Map<String, Object> stats = appMonitor.getConfigBus().getStats();
+            WritableMap result = Arguments.createMap();
+            result.putDouble("version", (Long) stats.get("version"));
+            result.putDouble("appliedVersion", (Long) stats.get("appliedVersion"));
+            result.putDouble("lastApplyLatencyMs", (Long) stats.get("lastApplyLatencyMs"));
+            result.putDouble("maxApplyLatencyMs", (Long) stats.get("maxApplyLatencyMs"));
+            promise.resolve(result);
+        } catch (Exception e) {
+            promise.reject("CONFIG_VERSION_ERROR", e.getMessage());
+        }
+    }
+
+    // Resolves once the engine has applied `version` (as returned by a setter)
+    @ReactMethod
+    public void awaitConfigVersion(double version, double timeoutMs, Promise promise) {
+        AtomicBoolean settled = new AtomicBoolean();
+        Handler timeouts = new Handler(Looper.getMainLooper());
+        Runnable timeout = () -> {
+            if (settled.compareAndSet(false, true)) {
+                promise.reject("CONFIG_TIMEOUT", "Config version " + (long) version + " not applied within "
+                        + (long) timeoutMs + "ms");
+            }
+        };
+        ConfigBus bus;
+        try {
+            bus = appMonitor.getConfigBus();
+        } catch (Exception e) {
+            promise.reject("CONFIG_VERSION_ERROR", e.getMessage());
+            return;
+        }
+        timeouts.postDelayed(timeout, (long) timeoutMs);
+        bus.whenApplied((long) version, () -> {
+            if (settled.compareAndSet(false, true)) {
+                timeouts.removeCallbacks(timeout);
+                promise.resolve((double) version);
+            }
+        });
+    }
+
     private boolean hasUsageAccessPermission() {
         try {
             AppOpsManager appOps = (AppOpsManager) reactContext.getSystemService(Context.APP_OPS_SERVICE);
@@ -0,0 +1,103 @@
+package com.doomscrollstopper;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MonitorSchedulerTest {
+    private static final long NOW = 1_000_000L;
+
+    private static long next(MonitorScheduler scheduler, boolean eventsConnected, boolean blocked) {
+        return scheduler.nextDelay(true, true, eventsConnected, blocked, 0L, NOW);
+    }
+
+    @Test
+    public void pollsFastAfterSwitchThenHoldsBaseIntervalWithoutEvents() {
+        MonitorScheduler scheduler = new MonitorScheduler();
+        for (int i = 0; i < 4; i++) {
+            assertEquals(500L, next(scheduler, false, false));
+            assertEquals(MonitorScheduler.State.FAST, scheduler.getState());
+        }
+        // Poller is the only detector: never slower than 1s
+        for (int i = 0; i < 5; i++) {
+            assertEquals(1000L, next(scheduler, false, false));
+        }
+        assertEquals(MonitorScheduler.State.BACKOFF, scheduler.getState());
+    }
+
+    @Test
+    public void backsOffOnlyWhileEventsAreConnected() {
+        MonitorScheduler scheduler = new MonitorScheduler();
+        assertEquals(1000L, next(scheduler, true, false));
+        assertEquals(2000L, next(scheduler, true, false));
+        assertEquals(4000L, next(scheduler, true, false));
+        for (int i = 0; i < 10; i++) {
+            next(scheduler, true, false);
+        }
+        assertEquals(60000L, next(scheduler, true, false));
+    }
+
+    @Test
+    public void blockedForegroundAppGetsNoBackoff() {
+        MonitorScheduler scheduler = new MonitorScheduler();
+        next(scheduler, true, false);
+        next(scheduler, true, false);
+        assertEquals(1000L, next(scheduler, true, true));
+        assertEquals(MonitorScheduler.State.BLOCKED_APP, scheduler.getState());
+        assertEquals(1000L, next(scheduler, true, true));
+        // Leaving the blocked app restarts the backoff from the base interval
+        assertEquals(1000L, next(scheduler, true, false));
+        assertEquals(MonitorScheduler.State.BACKOFF, scheduler.getState());
+    }
+
+    @Test
+    public void appSwitchRestartsFastPolls() {
+        MonitorScheduler scheduler = new MonitorScheduler();
+        for (int i = 0; i < 6; i++) {
+            next(scheduler, false, false);
+        }
+        scheduler.onAppSwitched();
+        assertEquals(500L, next(scheduler, false, false));
+        assertEquals(MonitorScheduler.State.FAST, scheduler.getState());
+    }
+
+    @Test
+    public void deadlineSoonerThanBackoffWins() {
+        MonitorScheduler scheduler = new MonitorScheduler();
+        long delay = scheduler.nextDelay(true, true, true, false, NOW + 300L, NOW);
+        assertEquals(300L, delay);
+        assertEquals(MonitorScheduler.State.DEADLINE, scheduler.getState());
+        // An overdue deadline still waits the minimum instead of spinning
+        assertEquals(100L, scheduler.nextDelay(true, true, true, false, NOW - 50L, NOW));
+    }
+
+    @Test
+    public void screenOffAndEmptyBlocklistPark() {
+        MonitorScheduler scheduler = new MonitorScheduler();
+        assertEquals(MonitorScheduler.STOPPED, scheduler.nextDelay(false, true, false, false, 0L, NOW));
+        assertEquals(MonitorScheduler.State.SCREEN_OFF, scheduler.getState());
+        assertEquals(MonitorScheduler.STOPPED, scheduler.nextDelay(true, false, false, false, 0L, NOW));
+        assertEquals(MonitorScheduler.State.NO_BLOCKLIST, scheduler.getState());
+        // Waking from a park starts with quick polls again
+        assertEquals(500L, next(scheduler, false, false));
+    }
+
+    @Test
+    public void listenerSeesEachTransitionOnce() {
+        MonitorScheduler scheduler = new MonitorScheduler();
+        List<MonitorScheduler.State> seen = new ArrayList<>();
+        scheduler.setListener((from, to, wakeups) -> seen.add(to));
+        next(scheduler, true, false);
+        next(scheduler, true, false);
+        next(scheduler, true, true);
+        scheduler.nextDelay(false, true, true, false, 0L, NOW);
+        assertEquals(3, seen.size());
+        assertEquals(MonitorScheduler.State.BACKOFF, seen.get(0));
+        assertEquals(MonitorScheduler.State.BLOCKED_APP, seen.get(1));
+        assertEquals(MonitorScheduler.State.SCREEN_OFF, seen.get(2));
+        assertEquals(3L, scheduler.getStats().get("transitions"));
+    }
+}
@@ -0,0 +1,120 @@
+package com.doomscrollstopper;
+
+import static org.junit.Assert.assertEquals;
+
+import android.app.usage.UsageEvents;
+
+import org.junit.Test;
+
+public class UsageSessionizerTest {
+    private static final int RESUMED = UsageEvents.Event.ACTIVITY_RESUMED;
+    private static final int PAUSED = UsageEvents.Event.ACTIVITY_PAUSED;
+    private static final int STOPPED = UsageEvents.Event.ACTIVITY_STOPPED;
+    private static final int SHUTDOWN = UsageEvents.Event.DEVICE_SHUTDOWN;
+    private static final long WINDOW_START = 10_000L;
+
+    // Fed by hand, so no UsageStatsManager is needed
+    private static UsageSessionizer sessionizer() {
+        return new UsageSessionizer(null, WINDOW_START, null);
+    }
+
+    @Test
+    public void activityChangeInsideAppKeepsSessionOpen() {
+        UsageSessionizer s = sessionizer();
+        s.accept(RESUMED, "a", 11_000L);
+        s.accept(PAUSED, "a", 12_000L);
+        s.accept(RESUMED, "a", 12_001L);
+        // A.stop arrives after B.resume and must not end the session
+        s.accept(STOPPED, "a", 12_500L);
+        s.markAdvanced(20_000L);
+        assertEquals(1_000L + (20_000L - 12_001L), s.getTotal("a"));
+        assertEquals(1, s.getLaunches("a"));
+    }
+
+    @Test
+    public void sessionEndsOnlyWhenEveryActivityIsPaused() {
+        UsageSessionizer s = sessionizer();
+        s.accept(RESUMED, "a", 11_000L);
+        s.accept(RESUMED, "a", 11_500L);
+        s.accept(PAUSED, "a", 12_000L);
+        s.markAdvanced(15_000L);
+        assertEquals(4_000L, s.getTotal("a"));
+        s.accept(PAUSED, "a", 16_000L);
+        s.markAdvanced(20_000L);
+        assertEquals(5_000L, s.getTotal("a"));
+    }
+
+    @Test
+    public void orphanPauseIsCreditedFromWindowStart() {
+        UsageSessionizer s = sessionizer();
+        s.accept(PAUSED, "a", 15_000L);
+        s.markAdvanced(20_000L);
+        assertEquals(5_000L, s.getTotal("a"));
+    }
+
+    @Test
+    public void lateOrphanPauseStopsAtFirstResume() {
+        UsageSessionizer s = sessionizer();
+        s.accept(RESUMED, "b", 12_000L);
+        s.accept(PAUSED, "a", 13_000L);
+        s.markAdvanced(20_000L);
+        assertEquals(2_000L, s.getTotal("a"));
+        assertEquals(8_000L, s.getTotal("b"));
+    }
+
+    @Test
+    public void sessionSpanningWindowStartIsCreditedWithoutInWindowEvents() {
+        UsageSessionizer s = sessionizer();
+        s.accept(RESUMED, "a", 5_000L);
+        s.markAdvanced(20_000L);
+        assertEquals(10_000L, s.getTotal("a"));
+        assertEquals(0, s.getLaunches("a"));
+        assertEquals(15_000L, s.getTotalAsOf("a", 25_000L));
+    }
+
+    @Test
+    public void sessionSpanningWindowStartEndsAtItsPause() {
+        UsageSessionizer s = sessionizer();
+        s.accept(RESUMED, "a", 5_000L);
+        s.accept(PAUSED, "a", 14_000L);
+        s.accept(RESUMED, "b", 14_000L);
+        s.markAdvanced(20_000L);
+        assertEquals(4_000L, s.getTotal("a"));
+        assertEquals(6_000L, s.getTotal("b"));
+    }
+
+    @Test
+    public void appPausedBeforeWindowStartIsNotCredited() {
+        UsageSessionizer s = sessionizer();
+        s.accept(RESUMED, "a", 5_000L);
+        s.accept(PAUSED, "a", 6_000L);
+        s.markAdvanced(20_000L);
+        assertEquals(0L, s.getTotal("a"));
+    }
+
+    @Test
+    public void shutdownClosesOpenSession() {
+        UsageSessionizer s = sessionizer();
+        s.accept(RESUMED, "a", 11_000L);
+        s.accept(SHUTDOWN, "android", 14_000L);
+        s.markAdvanced(20_000L);
+        assertEquals(3_000L, s.getTotal("a"));
+        // After a reboot the same app coming back is a new launch
+        s.accept(RESUMED, "a", 21_000L);
+        assertEquals(2, s.getLaunches("a"));
+    }
+
+    @Test
+    public void launchesCountSwitchesBetweenPackages() {
+        UsageSessionizer s = sessionizer();
+        s.accept(RESUMED, "a", 11_000L);
+        s.accept(PAUSED, "a", 12_000L);
+        s.accept(RESUMED, "b", 12_000L);
+        s.accept(PAUSED, "b", 13_000L);
+        s.accept(RESUMED, "a", 13_000L);
+        s.markAdvanced(14_000L);
+        assertEquals(2, s.getLaunches("a"));
+        assertEquals(1, s.getLaunches("b"));
+        assertEquals(2_000L, s.getTotal("a"));
+    }
+}
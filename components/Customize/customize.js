@@ -113,8 +113,8 @@ const Customize = () => {
         const appsToBlock = mode.blockedApps || [];
 
         try {
-            SettingsModule.saveBlockedApps(appsToBlock);
-            await VPNModule.setBlockedApps(appsToBlock);
+            // One transaction: persisted once, picked up by the monitor between ticks
+            await VPNModule.applyConfig({ blockedApps: appsToBlock });
             if (!isMonitoringEnabled) {
                 await toggleMonitoring(true);
             }
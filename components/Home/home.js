@@ -87,6 +87,7 @@ const Home = () => {
     ];
 
     const CACHE_TTL_MS = 5 * 60 * 1000;
+    const USAGE_UPDATE_INTERVAL_MS = 5000;
     const cacheRef = useRef({
         installedApps: { data: [], timestamp: 0 },
         screenTimeStats: { data: null, timestamp: 0 },
@@ -219,6 +220,24 @@ const Home = () => {
 
         const blockedListener = appBlockerEmitter.addListener('onBlockedAppOpened', (event) => { });
 
+        // Native pushes today's running total; no need to re-query just to watch it grow
+        const usageListener = appBlockerEmitter.addListener('onUsageUpdate', (update) => {
+            if (update && typeof update.todayTotal === 'number') {
+                setScreenTime(Math.floor(update.todayTotal / 60000));
+            }
+        });
+        let usageSubscriptionId = null;
+        let unmounted = false;
+        VPNModule.subscribeUsageUpdates(USAGE_UPDATE_INTERVAL_MS)
+            .then((id) => {
+                if (unmounted) {
+                    VPNModule.unsubscribeUsageUpdates(id);
+                } else {
+                    usageSubscriptionId = id;
+                }
+            })
+            .catch((error) => console.error('Error subscribing to usage updates:', error));
+
         const appStateListener = AppState.addEventListener('change', (nextAppState) => {
             setAppState(prevState => {
                 if (prevState.match(/inactive|background/) && nextAppState === 'active' && isMonitoring) {
@@ -231,6 +250,9 @@ const Home = () => {
         return () => {
             detectionListener.remove();
             blockedListener.remove();
+            usageListener.remove();
+            unmounted = true;
+            if (usageSubscriptionId !== null) VPNModule.unsubscribeUsageUpdates(usageSubscriptionId);
             appStateListener?.remove();
             if (restartDebounceRef.current) clearTimeout(restartDebounceRef.current);
         };
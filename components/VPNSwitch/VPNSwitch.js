@@ -1,4 +1,4 @@
-import React, { useState, useEffect } from 'react';
+import React, { useState, useEffect, useRef } from 'react';
 import {
   View,
   Text,
@@ -13,7 +13,7 @@ import {
   TextInput,
   AppState,
 } from 'react-native';
-const { VPNModule, SettingsModule } = NativeModules;
+const { VPNModule } = NativeModules;
 const appBlockerEmitter = new NativeEventEmitter(VPNModule);
 
 const VPNSwitch = () => {
@@ -23,31 +23,35 @@ const VPNSwitch = () => {
   const [detectedApps, setDetectedApps] = useState([]);
   const [searchQuery, setSearchQuery] = useState('');
   const [appState, setAppState] = useState(AppState.currentState);
+  // Native blocklist version our copy is based on (-1 = not known yet, skip the check)
+  const blocklistVersion = useRef(-1);
+  // Toggles sent but not yet confirmed by native (package -> block), reapplied after a rebase
+  const pendingToggles = useRef(new Map());
 
   useEffect(() => {
     const initialize = async () => {
       try {
-        // Load blocked apps from persistent storage
-        const savedBlockedApps = await new Promise((resolve, reject) => {
-          SettingsModule.getBlockedApps((apps) => resolve(apps));
-        });
+        // Load blocked apps with the version later toggles are checked against
+        const current = await VPNModule.getBlocklist();
+        blocklistVersion.current = current.version;
 
-        let initialBlocked = new Set(savedBlockedApps || []);
-        let updatedDefaults = false;
-        ['com.instagram.android', 'com.google.android.youtube'].forEach((pkg) => {
-          if (!initialBlocked.has(pkg)) {
-            initialBlocked.add(pkg);
-            updatedDefaults = true;
-          }
-        });
-
-        if (updatedDefaults) {
-          SettingsModule.saveBlockedApps(Array.from(initialBlocked));
-        }
+        const initialBlocked = new Set(current.blockedApps || []);
+        const missingDefaults = ['com.instagram.android', 'com.google.android.youtube']
+          .filter((pkg) => !initialBlocked.has(pkg));
+        missingDefaults.forEach((pkg) => initialBlocked.add(pkg));
 
         if (initialBlocked.size > 0) {
           setBlockedApps(initialBlocked);
         }
+
+        if (missingDefaults.length > 0) {
+          try {
+            const result = await VPNModule.addBlockedApps(missingDefaults, blocklistVersion.current);
+            blocklistVersion.current = Math.max(blocklistVersion.current, result.version);
+          } catch (error) {
+            console.warn('Failed to add default blocked apps:', error);
+          }
+        }
   
         // Load installed apps
         await loadInstalledApps();
@@ -112,6 +116,11 @@ const VPNSwitch = () => {
       // console.log('Loaded apps count:', apps.length);
       setInstalledApps(apps);
     } catch (error) {
+      if (error.code === 'APPS_INDEX_BUILDING') {
+        // First index build still running after a cold start; try again shortly
+        setTimeout(loadInstalledApps, 1000);
+        return;
+      }
       console.error('Failed to load apps:', error);
       Alert.alert('Error', 'Failed to load installed apps');
 
@@ -190,24 +199,55 @@ const VPNSwitch = () => {
   };
 
   const toggleAppBlock = async (packageName) => {
-    const newBlockedApps = new Set(blockedApps);
+    const block = !blockedApps.has(packageName);
     console.log('Toggling app block for:', packageName);
-    if (newBlockedApps.has(packageName)) {
-      newBlockedApps.delete(packageName);
-    } else {
-      newBlockedApps.add(packageName);
-    }
-    setBlockedApps(newBlockedApps);
+    pendingToggles.current.set(packageName, block);
+    setBlockedApps((prev) => {
+      const next = new Set(prev);
+      if (block) {
+        next.add(packageName);
+      } else {
+        next.delete(packageName);
+      }
+      return next;
+    });
 
-    SettingsModule.saveBlockedApps(Array.from(newBlockedApps));
+    // Send only this change; native persists it as a journal record
+    const sendDelta = (expectedVersion) => (block
+      ? VPNModule.addBlockedApps([packageName], expectedVersion)
+      : VPNModule.removeBlockedApps([packageName], expectedVersion));
 
     try {
-      await VPNModule.setBlockedApps(Array.from(newBlockedApps));
+      let result;
+      try {
+        result = await sendDelta(blocklistVersion.current);
+      } catch (error) {
+        if (error.code !== 'BLOCKLIST_CONFLICT') {
+          throw error;
+        }
+        // Someone else changed the list: rebase on the native copy, keeping every toggle
+        // still in flight on top of it, and retry once
+        const current = await VPNModule.getBlocklist();
+        const rebased = new Set(current.blockedApps);
+        pendingToggles.current.forEach((pendingBlock, pendingPackage) => {
+          if (pendingBlock) {
+            rebased.add(pendingPackage);
+          } else {
+            rebased.delete(pendingPackage);
+          }
+        });
+        setBlockedApps(rebased);
+        result = await sendDelta(current.version);
+      }
+      blocklistVersion.current = Math.max(blocklistVersion.current, result.version);
     } catch (error) {
       console.error('Failed to update blocked apps:', error);
+    } finally {
+      // A newer toggle of the same app owns the entry now
+      if (pendingToggles.current.get(packageName) === block) {
+        pendingToggles.current.delete(packageName);
+      }
     }
-
-    console.log('Updated blocked apps:', Array.from(newBlockedApps));
   };
 
   const addDetectedApp = (appInfo) => {